@@ -0,0 +1,113 @@
+package system.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import system.Building;
+import system.Room;
+import system.protocol.Command;
+import system.protocol.CommandCodec;
+import system.protocol.LegacyFormat;
+import system.transport.MessageProperties;
+import system.utils.RequestType;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Building.handleAgentMessage, including decoding the request and encoding the response
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildingBenchmark {
+    private static final MessageProperties PROPERTIES = new MessageProperties("1", "agent");
+
+    @Param({"100", "10000"})
+    int rooms;
+
+    // pending reservations that exist before the measurement, they hold the first rooms of the building
+    @Param({"0", "50"})
+    int reservations;
+
+    private CapturingTransport transport;
+    private String queue;
+    private List<Room> buildingRooms;
+    private byte[] makeBookingOnHeldRoom;
+    private byte[] makeBookingOnUnknownRoom;
+    private byte[] stateRequest;
+    private int nextFreeRoom;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        transport = new CapturingTransport();
+        Building building = new Building(transport, rooms);
+        building.start();
+
+        queue = building.getBuildingID() + "Queue";
+        buildingRooms = building.getRooms();
+
+        for (int i = 0; i < reservations; i++)
+            transport.deliver(queue, PROPERTIES, makeBooking(buildingRooms.get(i).getRoomIdText()));
+
+        makeBookingOnHeldRoom = makeBooking(buildingRooms.get(0).getRoomIdText());
+        makeBookingOnUnknownRoom = makeBooking("unknown");
+        stateRequest = CommandCodec.encode(new Command(RequestType.BUILDING_STATE_REQUEST).setAgentId("agent"));
+        nextFreeRoom = reservations;
+    }
+
+    private static byte[] makeBooking(String roomId) {
+        return CommandCodec.encode(new Command(RequestType.MAKE_BOOKING)
+                .setRoomId(roomId)
+                .setCustomerId("customer")
+                .setAgentId("agent"));
+    }
+
+    @Benchmark
+    public byte[] rejectUnknownRoom() throws IOException {
+        return transport.deliver(queue, PROPERTIES, makeBookingOnUnknownRoom);
+    }
+
+    // rejected as reserved when there are reservations, otherwise the first request reserves the room
+    @Benchmark
+    public byte[] makeBookingOnFirstRoom() throws IOException {
+        return transport.deliver(queue, PROPERTIES, makeBookingOnHeldRoom);
+    }
+
+    // the full state a starting agent asks for, every room of the building is written out
+    @Benchmark
+    public byte[] buildingState() throws IOException {
+        return transport.deliver(queue, PROPERTIES, stateRequest);
+    }
+
+    // MAKE, CONFIRM and CANCEL of one free room, which leaves the room free again
+    @Benchmark
+    public byte[] bookingCycle() throws IOException {
+        String roomId = buildingRooms.get(nextFreeRoom).getRoomIdText();
+        nextFreeRoom = nextFreeRoom + 1 < rooms ? nextFreeRoom + 1 : reservations;
+
+        byte[] made = transport.deliver(queue, PROPERTIES, makeBooking(roomId));
+        String reservationId = CommandCodec.decode(made, LegacyFormat.BUILDING_RESPONSE).getReservationId();
+
+        transport.deliver(queue, PROPERTIES, CommandCodec.encode(new Command(RequestType.CONFIRM_BOOKING)
+                .setReservationId(reservationId)
+                .setAgentId("agent")
+                .setRoomId(roomId)));
+
+        return transport.deliver(queue, PROPERTIES, CommandCodec.encode(new Command(RequestType.CANCEL_BOOKING)
+                .setReservationId(reservationId)
+                .setAgentId("agent")
+                .setRoomId(roomId)));
+    }
+}
@@ -0,0 +1,130 @@
+package system.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import system.Building;
+import system.registry.AvailabilityQuery;
+import system.registry.BuildingRegistry;
+import system.registry.BuildingSnapshot;
+import system.utils.Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Agent side handling of building updates and MAKE_BOOKING validation.
+// The listScan benchmarks keep the List<String> lookups the Agent used before the registry as a baseline.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildingRegistryBenchmark {
+    @Param({"10", "1000"})
+    int buildings;
+
+    @Param({"3", "100"})
+    int roomsPerBuilding;
+
+    private BuildingRegistry registry;
+    private List<String> descriptions;
+    private String lastBuildingUpdate;
+    private String lastBuildingId;
+    private String lastRoomId;
+    private Map<String, Boolean> lastRoomBooked;
+    private long lastSequence;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        registry = new BuildingRegistry();
+        descriptions = new ArrayList<>();
+
+        for (int i = 0; i < buildings; i++) {
+            String description = new Building(null, roomsPerBuilding).toString();
+            registry.update(description);
+            descriptions.add(description);
+        }
+
+        // the worst case for the list scan, the building that was announced last
+        lastBuildingUpdate = descriptions.get(buildings - 1);
+        BuildingSnapshot lastBuilding = BuildingSnapshot.parse(lastBuildingUpdate);
+        lastBuildingId = lastBuilding.getBuildingId();
+        lastRoomId = new ArrayList<>(lastBuilding.getRooms().keySet()).get(roomsPerBuilding - 1);
+        lastRoomBooked = Map.of(lastRoomId, true);
+        registry.applyState(lastBuildingUpdate, lastSequence);
+    }
+
+    @Benchmark
+    public BuildingSnapshot registryUpdate() {
+        return registry.update(lastBuildingUpdate);
+    }
+
+    // what an agent does for a booking instead of registryUpdate since buildings send deltas
+    @Benchmark
+    public boolean registryApplyDelta() {
+        return registry.applyDelta(lastBuildingId, ++lastSequence, lastRoomBooked);
+    }
+
+    @Benchmark
+    public boolean registryContainsRoom() {
+        return registry.containsRoom(lastBuildingId, lastRoomId);
+    }
+
+    @Benchmark
+    public String registryListPayload() {
+        return registry.toString();
+    }
+
+    // what a customer gets from AVAILABILITY_SEARCH, compare with registryListPayload
+    @Benchmark
+    public String registrySearchFreeRooms() {
+        return registry.search(new AvailabilityQuery(null, true, 10));
+    }
+
+    @Benchmark
+    public int listScanUpdate() {
+        int index = listScanBuildingIndex(lastBuildingUpdate, descriptions);
+        descriptions.set(index, lastBuildingUpdate);
+        return index;
+    }
+
+    @Benchmark
+    public boolean listScanContainsRoom() {
+        return listScanValidate(lastBuildingId, lastRoomId, descriptions);
+    }
+
+    private static boolean listScanValidate(String buildingID, String roomID, List<String> buildings) {
+        for (String s : buildings) {
+            if (s.contains(buildingID)) {
+                if (s.contains(roomID)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static int listScanBuildingIndex(String message, List<String> buildings) {
+        String buildingID = Utility.extractBuildingID(message);
+
+        for (int i = 0; i < buildings.size(); i++) {
+            if (buildings.get(i).contains(buildingID))
+                return i;
+        }
+
+        return -1;
+    }
+}
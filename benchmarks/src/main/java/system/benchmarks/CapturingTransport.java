@@ -0,0 +1,49 @@
+package system.benchmarks;
+
+import system.transport.DeliveryHandler;
+import system.transport.ExchangeType;
+import system.transport.MessageProperties;
+import system.transport.Transport;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Transport that hands messages straight to a consumer and keeps the last published body,
+// so a role's request handling can be measured without any messaging in between
+public class CapturingTransport implements Transport {
+    private final Map<String, DeliveryHandler> handlers = new HashMap<>();
+    private byte[] lastPublished;
+
+    @Override
+    public void exchangeDeclare(String exchange, ExchangeType type) {
+    }
+
+    @Override
+    public void queueDeclare(String queue) {
+    }
+
+    @Override
+    public void queueBind(String queue, String exchange, String routingKey) {
+    }
+
+    @Override
+    public void publish(String exchange, String routingKey, MessageProperties properties, byte[] body) {
+        lastPublished = body;
+    }
+
+    @Override
+    public void consume(String queue, DeliveryHandler handler) {
+        handlers.put(queue, handler);
+    }
+
+    // Runs the consumer of the queue and returns what it published in response
+    public byte[] deliver(String queue, MessageProperties properties, byte[] body) throws IOException {
+        handlers.get(queue).handle(properties, body);
+        return lastPublished;
+    }
+
+    @Override
+    public void close() {
+    }
+}
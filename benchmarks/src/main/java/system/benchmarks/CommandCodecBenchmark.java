@@ -0,0 +1,49 @@
+package system.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import system.protocol.Command;
+import system.protocol.CommandCodec;
+import system.protocol.LegacyFormat;
+import system.utils.RequestType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Encoding and decoding of a MAKE_BOOKING request, binary and in the legacy text format
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandCodecBenchmark {
+    private final Command request = new Command(RequestType.MAKE_BOOKING)
+            .setRoomId("3f2a9c1d")
+            .setCustomerId("8b1e7f00")
+            .setAgentId("c0ffee12");
+    private final byte[] binary = CommandCodec.encode(request);
+    private final byte[] text = "MAKE_BOOKING 3f2a9c1d 8b1e7f00 c0ffee12".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public byte[] encode() {
+        return CommandCodec.encode(request);
+    }
+
+    @Benchmark
+    public Command decodeBinary() {
+        return CommandCodec.decode(binary, LegacyFormat.BUILDING_REQUEST);
+    }
+
+    @Benchmark
+    public Command decodeLegacyText() {
+        return CommandCodec.decode(text, LegacyFormat.BUILDING_REQUEST);
+    }
+}
@@ -0,0 +1,71 @@
+package system.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import system.Reservation;
+import system.RoomCalendar;
+import system.utils.TimeRange;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Overlap checks and free time queries on a room calendar with many hourly bookings
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomCalendarBenchmark {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Param({"100", "50000"})
+    int bookings;
+
+    private RoomCalendar calendar;
+    private TimeRange takenHour;
+    private TimeRange freeHour;
+    private TimeRange day;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        calendar = new RoomCalendar();
+
+        // every other hour is booked
+        for (int i = 0; i < bookings; i++) {
+            Reservation reservation = new Reservation(i, "c", 1, "b");
+            reservation.setTimeRange(new TimeRange(2 * i * HOUR, (2 * i + 1) * HOUR));
+            calendar.add(reservation);
+        }
+
+        long middle = bookings / 2 * 2 * HOUR;
+        takenHour = new TimeRange(middle, middle + HOUR);
+        freeHour = new TimeRange(middle + HOUR, middle + 2 * HOUR);
+        day = new TimeRange(middle, middle + 24 * HOUR);
+    }
+
+    @Benchmark
+    public Reservation findOverlapTaken() {
+        return calendar.findOverlap(takenHour);
+    }
+
+    @Benchmark
+    public boolean isFree() {
+        return calendar.isFree(freeHour);
+    }
+
+    @Benchmark
+    public List<TimeRange> freeRangesOfADay() {
+        return calendar.freeRanges(day);
+    }
+}
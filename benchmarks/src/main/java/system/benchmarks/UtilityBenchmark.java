@@ -0,0 +1,83 @@
+package system.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import system.Building;
+import system.registry.BuildingRegistry;
+import system.registry.BuildingSnapshot;
+import system.utils.Utility;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Parsing and printing of building descriptions
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilityBenchmark {
+    @Param({"10", "100"})
+    int buildings;
+
+    @Param({"3", "100"})
+    int roomsPerBuilding;
+
+    private String buildingDescription;
+    private String buildingsList;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BuildingRegistry registry = new BuildingRegistry();
+        for (int i = 0; i < buildings; i++)
+            registry.update(new Building(null, roomsPerBuilding).toString());
+
+        buildingDescription = registry.getBuildings().iterator().next().toString();
+        buildingsList = registry.toString();
+
+        // printBuildingList is measured without the cost of the terminal
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public Building parseBuilding() throws IOException {
+        return Utility.parseBuilding(buildingDescription);
+    }
+
+    @Benchmark
+    public BuildingSnapshot parseBuildingSnapshot() {
+        return BuildingSnapshot.parse(buildingDescription);
+    }
+
+    @Benchmark
+    public List<BuildingSnapshot> parseBuildingList() {
+        return Utility.parseBuildingList(buildingsList);
+    }
+
+    @Benchmark
+    public void printBuildingList() {
+        Utility.printBuildingList(buildingsList);
+    }
+}
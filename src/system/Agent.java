@@ -1,26 +1,78 @@
 package system;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.DeliverCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import system.metrics.LatencyHistogram;
+import system.metrics.Metrics;
+import system.protocol.Command;
+import system.tracing.Tracing;
+import system.protocol.CommandCodec;
+import system.protocol.LegacyFormat;
+import system.protocol.Status;
+import system.registry.AvailabilityQuery;
+import system.registry.BuildingListQuery;
+import system.registry.BuildingRegistry;
+import system.registry.BuildingSnapshot;
+import system.transport.DeliveryHandler;
+import system.transport.ExchangeType;
+import system.transport.MessageProperties;
+import system.transport.Transport;
+import system.transport.Transports;
+import system.utils.Ids;
+import system.utils.KeyedSerialExecutor;
 import system.utils.RequestType;
-import system.utils.Utility;
+import system.utils.Threads;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Agent {
     private final String agentID;
-    private Channel channel;
-    private Connection connection;
+    private final Transport transport;
     ObjectMapper mapper;
-    List<String> buildings;
-    private String latestRequestCustomerId;
+    BuildingRegistry buildings;
+
+    // Requests forwarded to a building that have not been answered yet, keyed by correlation ID
+    private final ConcurrentHashMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private final long requestTimeoutMillis;
+    private final ScheduledExecutorService timeoutScheduler;
+    private volatile boolean boundToBuildingResponses;
+    // buildings that announce themselves in the legacy text format, they are sent requests in that format
+    // and answer without echoing the correlation ID
+    private final Set<String> legacyBuildings = ConcurrentHashMap.newKeySet();
+    // buildings whose full state was requested after a missed delta -> System.nanoTime() of the request
+    private final ConcurrentHashMap<String, Long> stateRequests = new ConcurrentHashMap<>();
+    // The encoded BUILDINGS_LIST response. The correlation ID travels in the message properties,
+    // so every list request is answered with the same buffer until a building update changes the registry.
+    private volatile EncodedResponse buildingsList = new EncodedResponse(-1, null);
+    // Deliveries are handled on their own (virtual) threads. Those for the same building keep their order,
+    // other buildings and the list requests of the customers are handled in parallel.
+    private final KeyedSerialExecutor dispatcher;
+    // deliveries handed to the dispatcher and not handled yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private static final Logger LOG = LoggerFactory.getLogger(Agent.class);
+    private static final Metrics METRICS = Metrics.forRole("agent");
+    // time spent in handleCustomerMessage, the time a delivery waits for the dispatcher,
+    // and the time from forwarding a request to a building until its response arrives
+    private static final LatencyHistogram HANDLE_NANOS = METRICS.histogram("handle_nanos");
+    private static final LatencyHistogram QUEUE_NANOS = METRICS.histogram("queue_nanos");
+    private static final LatencyHistogram BUILDING_NANOS = METRICS.histogram("building_round_trip_nanos");
+
+    // -Dconferencerent.agent.requestTimeoutMs, how long a building may take to answer a forwarded request
+    private static final String REQUEST_TIMEOUT_PROPERTY = "conferencerent.agent.requestTimeoutMs";
 
 
     private static final String BUILDING_FANOUT_EXCHANGE = "buildingsExchange";
@@ -34,7 +86,8 @@ public class Agent {
     private static final String BUILDING_AGENT_EXCHANGE = "buildAgentExchange";
     private static final String AGENT_BUILDING_EXCHANGE = "agentBuildExchange";
     private static final String AGENT_BUILDING_FANOUT_EXCHANGE = "agentBuildFanoutExchange";
-    private static final String AGENT_BUILDING_INFO_QUEUE = "agentBuildQueue";
+    // the exchange a starting agent asks all buildings for their state on
+    private static final String BUILDING_SYNC_EXCHANGE = "buildingSyncExchange";
     private static final String CUSTOMER_AGENT_QUEUE = "custAgentQueue";
     private static final String AGENT_CUSTOMER_EXCHANGE = "agentCustExchange";
 
@@ -42,172 +95,540 @@ public class Agent {
     private final String agentsBuildingQueue;
 
     public static void main(String[] args) throws IOException, TimeoutException {
-        Agent agent = new Agent();
+        Agent agent = new Agent(Transports.create());
         agent.startListening();
     }
 
-    public Agent() {
-        this.buildings = new ArrayList<>();
+    public Agent(Transport transport) {
+        this.transport = transport;
+        this.buildings = new BuildingRegistry();
         this.mapper = new ObjectMapper();
-        this.agentID = UUID.randomUUID().toString().substring(0, 8);
+        this.agentID = Ids.nextText();
         agentsBuildingQueue = "agent_" + agentID + "_queue";
+        this.requestTimeoutMillis = Long.getLong(REQUEST_TIMEOUT_PROPERTY, 10_000);
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "agent-" + agentID + "-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new KeyedSerialExecutor(Threads.newThreadPerTaskExecutor("agent-" + agentID));
+
+        METRICS.gauge("buildings", buildings::size);
+        METRICS.gauge("pending_requests", pendingRequests::size);
+        METRICS.gauge("in_flight", inFlight::get);
     }
 
-    private void startListening() throws IOException, TimeoutException {
-        initRabbitMq();
+    public void startListening() throws IOException {
+        initMessaging();
         listenForInfoBuildingsUpdates();
         listenForCustomerMessages();
         listenForBuildingMessages();
-    }
+        // the update queue is bound already, so no change made after the buildings answer is missed
+        requestAllBuildingStates();
 
-    private void initRabbitMq() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+        long sweepInterval = Math.max(10, Math.min(1000, requestTimeoutMillis / 4));
+        timeoutScheduler.scheduleAtFixedRate(this::expirePendingRequests, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
 
+    private void initMessaging() throws IOException {
         // Declare a queue for each agent that will listen for building information
-        // Bind it to the fanout exchange declared in building
-        channel.exchangeDeclare(AGENT_BUILDING_FANOUT_EXCHANGE, "fanout");
-        channel.queueDeclare(AGENT_BUILDING_INFO_QUEUE, false, false, false, null);
-        channel.queueBind(AGENT_BUILDING_INFO_QUEUE, AGENT_BUILDING_FANOUT_EXCHANGE, "");
+        // Bind it to the fanout exchange declared in building, so that every agent receives every update
+        transport.exchangeDeclare(AGENT_BUILDING_FANOUT_EXCHANGE, ExchangeType.FANOUT);
+        transport.queueDeclareTemporary(agentsBuildingQueue);
+        transport.queueBind(agentsBuildingQueue, AGENT_BUILDING_FANOUT_EXCHANGE, "");
+
+        // Declare the fanout exchange the buildings listen on for state requests of starting agents
+        transport.exchangeDeclare(BUILDING_SYNC_EXCHANGE, ExchangeType.FANOUT);
 
         // Declare a personal queue for each agent that will listen for responses building //todo
-        channel.queueDeclare(agentID+"Queue", false, false, false, null);
+        transport.queueDeclare(agentID+"Queue");
 
 
         // Declare a shared queue that all agents will listen to for customer requests
-        channel.queueDeclare(CUSTOMER_AGENT_QUEUE, false, false, false, null);
+        transport.queueDeclare(CUSTOMER_AGENT_QUEUE);
 
         // Declare direct exchange for customer responses
-        channel.exchangeDeclare(AGENT_CUSTOMER_EXCHANGE, "direct");
+        transport.exchangeDeclare(AGENT_CUSTOMER_EXCHANGE, ExchangeType.DIRECT);
 
         // Declare direct exchange for agent requests to the building
-        channel.exchangeDeclare(AGENT_BUILDING_EXCHANGE, "direct");
+        transport.exchangeDeclare(AGENT_BUILDING_EXCHANGE, ExchangeType.DIRECT);
     }
 
 
     //done
     private void listenForCustomerMessages() throws IOException {
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println(" [x] Received a customer request '" + message + "'");
-            handleCustomerMessage(message);
+        DeliveryHandler deliveryHandler = (properties, body) -> {
+            Command request = decodeOrDrop(body, LegacyFormat.CUSTOMER_REQUEST);
+            if (request == null)
+                return;
+            LOG.debug("Received a customer request '{}'", request);
+
+            // requests without a building, like the building list, only have to keep the order of their customer
+            Object key = request.getBuildingId() != null ? request.getBuildingId()
+                    : properties.getReplyTo() != null ? properties.getReplyTo()
+                    : request.getCustomerId() != null ? request.getCustomerId() : CUSTOMER_AGENT_QUEUE;
+            dispatch(key, () -> {
+                Tracing.received(properties.getTrace(), "customer_to_agent.queue");
+                long startMicros = Tracing.nowMicros();
+                long start = System.nanoTime();
+                try {
+                    handleCustomerMessage(properties, request);
+                } finally {
+                    HANDLE_NANOS.record(System.nanoTime() - start);
+                    Tracing.span(properties.getTrace(), "agent.handle", startMicros, Tracing.nowMicros());
+                }
+            });
         };
 
         // Start consuming messages from the agents queue
-        channel.basicConsume(CUSTOMER_AGENT_QUEUE, true, deliverCallback, consumerTag -> { System.out.println("Customer request consumer was cancelled for some reason.");});
+        transport.consume(CUSTOMER_AGENT_QUEUE, deliveryHandler);
     }
 
     private void listenForBuildingMessages() throws IOException {
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            System.out.println(" [x] Received a building request '" + message + "'");
-            handleBuildingMessage(message);
+        DeliveryHandler deliveryHandler = (properties, body) -> {
+            Command response = decodeOrDrop(body, LegacyFormat.BUILDING_RESPONSE);
+            if (response == null)
+                return;
+            LOG.debug("Received a building response '{}'", response);
+            dispatch(response.getBuildingId() != null ? response.getBuildingId() : agentID, () -> {
+                Tracing.received(properties.getTrace(), "building_to_agent.queue");
+                handleBuildingMessage(properties, response);
+            });
         };
 
         // Listen on the agent's queue for responses from the building
-        channel.basicConsume(agentID+"Queue", true, deliverCallback, consumerTag -> { System.out.println("Building request consumer was cancelled for some reason.");});
+        transport.consume(agentID+"Queue", deliveryHandler);
     }
 
 
     private void listenForInfoBuildingsUpdates() throws IOException {
-        System.out.println("Agent " + agentID + " is listening for building updates on queue: " + AGENT_BUILDING_INFO_QUEUE);
 
         // Callback for when newly created building sends its information or
         // updated building sends information containing the updated data
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String message = new String(delivery.getBody(), "UTF-8");
-            int indexOfBuilding = Utility.getBuildingIndex(message, buildings);
+        DeliveryHandler deliveryHandler = (properties, body) -> {
+            if (CommandCodec.isBinary(body)) {
+                Command update = CommandCodec.decode(body, null);
+                if (update.getBuildingId() == null) {
+                    LOG.warn("Dropped a building update without a building ID '{}'", update);
+                    return;
+                }
 
-            // If the building is not in the list, add it, otherwise update it
-            if (indexOfBuilding == -1)
-                buildings.add(message);
-            else
-                buildings.set(indexOfBuilding, message);
+                // the deltas of a building are applied in the order they were sent
+                dispatch(update.getBuildingId(), () -> handleBuildingUpdate(update));
+                return;
+            }
 
+            String message = new String(body, "UTF-8");
 
-            System.out.println(" [x] Received a building update '" + buildings.get(buildings.size()-1) + "'");
+            // A building that does not number its changes sends its whole description every time
+            dispatch(agentsBuildingQueue, () -> legacyBuildings.add(buildings.update(message).getBuildingId()));
+
+            LOG.debug("Received a building update '{}'", message);
         };
 
         // Start consuming messages from the agents queue
-        System.out.println("Agent " + agentID + " is now listening for building updates on queue: " + AGENT_BUILDING_INFO_QUEUE);
-        channel.basicConsume(AGENT_BUILDING_INFO_QUEUE, true, deliverCallback, consumerTag -> { System.out.println("Building update consumer was cancelled for some reason.");});
+        LOG.info("Agent {} is listening for building updates on queue: {}", agentID, agentsBuildingQueue);
+        transport.consume(agentsBuildingQueue, deliveryHandler);
     }
 
-    private void sendDirectTo(String exchange, String routingKey, String messageToSend) throws IOException {
-        channel.basicPublish(exchange, routingKey, null, messageToSend.getBytes());
+    // A message that cannot be decoded is logged and dropped here instead of failing the consumer thread,
+    // which the transport shares with the other queues of the agent
+    private Command decodeOrDrop(byte[] body, LegacyFormat legacyFormat) {
+        try {
+            return CommandCodec.decode(body, legacyFormat);
+        } catch (RuntimeException e) {
+            LOG.warn("Dropped a message that could not be decoded as {}: {}", legacyFormat, e.toString());
+            return null;
+        }
+    }
 
-        String entity = exchange.equals(AGENT_CUSTOMER_EXCHANGE) ? "Customer" : "Building";
+    // Something done for a delivery on a thread of the dispatcher
+    private interface DeliveryTask {
+        void run() throws IOException;
+    }
 
-        System.out.println(" [x] Sent provided message to " + entity + " with ID: " + routingKey);
+    private void dispatch(Object key, DeliveryTask task) {
+        long receivedAt = System.nanoTime();
+        inFlight.incrementAndGet();
+        dispatcher.execute(key, () -> {
+            QUEUE_NANOS.record(System.nanoTime() - receivedAt);
+            try {
+                task.run();
+            } catch (IOException e) {
+                LOG.error("Handling a delivery failed", e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    // Applies a numbered building state or delta, a delta that does not follow the known state makes the agent ask for the full state
+    private void handleBuildingUpdate(Command update) throws IOException {
+        String buildingID = update.getBuildingId();
+        LOG.debug("Received a building update '{}'", update);
+
+        if (update.getType() == RequestType.BUILDING_STATE) {
+            buildings.applyState(update.getText(), update.getSequence());
+            stateRequests.remove(buildingID);
+            legacyBuildings.remove(buildingID);
+        } else if (update.getType() == RequestType.BUILDING_DELTA) {
+            if (!buildings.applyDelta(buildingID, update.getSequence(), BuildingSnapshot.parseRooms(update.getText(), 0)))
+                requestBuildingState(buildingID);
+        }
     }
 
+    // Asks every running building for its state, so that a new agent knows all buildings right away
+    // instead of only those that change after it started
+    private void requestAllBuildingStates() throws IOException {
+        bindToBuildingResponses();
+        transport.publish(BUILDING_SYNC_EXCHANGE, "", new MessageProperties(null, agentID), CommandCodec.encode(new Command(RequestType.BUILDING_STATE_REQUEST)
+                .setAgentId(agentID)));
 
-    private void handleCustomerMessage(String message) throws IOException {
-        String[] messageParts = message.split(" ");
+        LOG.info("Agent {} requested the state of all buildings", agentID);
+    }
+
+    private void requestBuildingState(String buildingID) throws IOException {
+        // deltas keep arriving until the state does, ask again only if the building did not answer in time
+        long now = System.nanoTime();
+        Long requestedAt = stateRequests.get(buildingID);
+        if (requestedAt != null && now - requestedAt < TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis))
+            return;
+        stateRequests.put(buildingID, now);
+
+        bindToBuildingResponses();
+        sendDirectTo(AGENT_BUILDING_EXCHANGE, buildingID, new MessageProperties(null, agentID), new Command(RequestType.BUILDING_STATE_REQUEST)
+                .setAgentId(agentID)
+                .setBuildingId(buildingID));
+    }
 
-        RequestType requestType = RequestType.valueOf(messageParts[0]);
+    // A traced message is sent with the trace of the message it answers or forwards, stamped with the time it is sent
+    private void sendDirectTo(String exchange, String routingKey, MessageProperties properties, Command messageToSend) throws IOException {
+        if (properties.getTrace() != null)
+            properties = properties.withTrace(Tracing.next(properties.getTrace()));
 
-        // The id of the customer that has made a request serves as the routing key for the response
-        latestRequestCustomerId = messageParts[1];
+        transport.publish(exchange, routingKey, properties, CommandCodec.encode(messageToSend));
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sent provided message to {} with ID: {}", exchange.equals(AGENT_CUSTOMER_EXCHANGE) ? "Customer" : "Building", routingKey);
+    }
+
+
+    private void handleCustomerMessage(MessageProperties properties, Command request) throws IOException {
+        RequestType requestType = request.getType();
+
+        // The customer names the routing key for the response, older customers use their ID for it
+        String customerRoutingKey = properties.getReplyTo() != null ? properties.getReplyTo() : request.getCustomerId();
+        MessageProperties customerProperties = new MessageProperties(properties.getCorrelationId(), null, properties.getTrace());
 
 
         if (requestType == RequestType.GET_BUILDINGS_LIST) {
+            BuildingListQuery query;
+            try {
+                query = BuildingListQuery.parse(request.getText());
+            } catch (IllegalArgumentException e) {
+                METRICS.count(requestType, Status.REJECTED);
+                sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(RequestType.BUILDINGS_LIST)
+                        .setStatus(Status.REJECTED)
+                        .setText("Listing failed, invalid paging: " + e.getMessage()));
+                return;
+            }
+
+            METRICS.count(requestType, Status.OK);
             try {
-                sendDirectTo(AGENT_CUSTOMER_EXCHANGE, latestRequestCustomerId, "BUILDINGS_LIST " + buildings.toString());
+                if (query == null) {
+                    transport.publish(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties.withTrace(Tracing.next(customerProperties.getTrace())), encodedBuildingsList());
+                    LOG.debug("Sent the building list to Customer with ID: {}", customerRoutingKey);
+                } else {
+                    sendBuildingListPages(customerRoutingKey, customerProperties, query);
+                }
             } catch (IOException e) {
-                e.printStackTrace();
+                LOG.error("Sending the building list failed", e);
             }
+        } else if (requestType == RequestType.AVAILABILITY_SEARCH) {
+            // answered from the registry, the buildings are not asked
+            AvailabilityQuery query;
+            try {
+                query = AvailabilityQuery.parse(request.getBuildingId(), request.getText());
+            } catch (IllegalArgumentException e) {
+                METRICS.count(requestType, Status.REJECTED);
+                sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(RequestType.AVAILABLE_ROOMS)
+                        .setStatus(Status.REJECTED)
+                        .setText("Search failed, invalid filters: " + e.getMessage()));
+                return;
+            }
+
+            METRICS.count(requestType, Status.OK);
+            sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(RequestType.AVAILABLE_ROOMS)
+                    .setBuildingId(request.getBuildingId())
+                    .setText(buildings.search(query)));
             // other request types
-        } else {// Bind the queue that will listen to the building requests to the exchange, the routing key is the agentID
-            // It is bound here because agent cannot bind this queue before the BUILDING_AGENT_EXCHANGE is declared
-            // And its only declared when the building is created
-            // If this request was received, then the building definitely exists
-            channel.queueBind(agentID + "Queue", BUILDING_AGENT_EXCHANGE, agentID);
+        } else {
+            bindToBuildingResponses();
 
             switch (requestType) {
                 case MAKE_BOOKING -> {
-                    String buildingID = messageParts[2];
-                    String roomID = messageParts[3];
+                    String buildingID = request.getBuildingId();
+                    String roomID = request.getRoomId();
 
                     // If the building and room IDs are valid, send a request to the building
-                    if (Utility.validateBuildingNRoomIDs(buildingID, roomID, buildings)) {
+                    if (buildings.containsRoom(buildingID, roomID)) {
                         // Send a request to the building to make a booking
-                        sendDirectTo(AGENT_BUILDING_EXCHANGE, buildingID, "MAKE_BOOKING " + roomID + " " + latestRequestCustomerId + " " + agentID);
+                        forwardToBuilding(buildingID, customerRoutingKey, customerProperties, new Command(RequestType.MAKE_BOOKING)
+                                .setRoomId(roomID)
+                                .setCustomerId(request.getCustomerId())
+                                .setAgentId(agentID)
+                                .setTimeRange(request.getTimeRange()));
                     } else {
-                        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, latestRequestCustomerId, "INVALID_BOOKING_DETAILS Booking failed, invalid building or room ID");
+                        METRICS.count(requestType, Status.INVALID_IDS);
+                        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(RequestType.INVALID_BOOKING_DETAILS)
+                                .setStatus(Status.INVALID_IDS)
+                                .setBuildingId(buildingID)
+                                .setRoomId(roomID)
+                                .setText("Booking failed, invalid building or room ID"));
                     }
                 }
-                case CONFIRM_BOOKING -> {
-                    String reservationID = messageParts[2];
-                    String agentID = this.agentID;
-                    String buildingID = messageParts[3];
-                    String roomID = messageParts[4];
+                case CONFIRM_BOOKING, CANCEL_BOOKING -> {
+                    String buildingID = request.getBuildingId();
+
+                    // the building checks the reservation, the agent only makes sure there is a building to ask
+                    if (buildings.get(buildingID) == null) {
+                        METRICS.count(requestType, Status.INVALID_IDS);
+                        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(invalidDetailsTypeOf(requestType))
+                                .setStatus(Status.INVALID_IDS)
+                                .setBuildingId(buildingID)
+                                .setRoomId(request.getRoomId())
+                                .setReservationId(request.getReservationId())
+                                .setText((requestType == RequestType.CONFIRM_BOOKING ? "Confirmation" : "Cancellation") + " failed, invalid building ID"));
+                        return;
+                    }
 
-                    sendDirectTo(AGENT_BUILDING_EXCHANGE, buildingID, "CONFIRM_BOOKING " + reservationID + " " + agentID + " " + roomID);
+                    forwardToBuilding(buildingID, customerRoutingKey, customerProperties, new Command(requestType)
+                            .setReservationId(request.getReservationId())
+                            .setCustomerId(request.getCustomerId())
+                            .setAgentId(agentID)
+                            .setRoomId(request.getRoomId())
+                            .setTimeRange(request.getTimeRange()));
                 }
-                case CANCEL_BOOKING -> {
-                    String reservationID = messageParts[2];
-                    String agentID = this.agentID;
-                    String buildingID = messageParts[3];
-                    String roomID = messageParts[4];
+                case FREE_TIME_QUERY -> {
+                    // answered by the building, the registry only knows which rooms are booked right now
+                    String buildingID = request.getBuildingId();
+
+                    boolean known = buildings.get(buildingID) != null;
+                    if (!known || legacyBuildings.contains(buildingID)) {
+                        Status status = known ? Status.REJECTED : Status.INVALID_IDS;
+                        METRICS.count(requestType, status);
+                        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(RequestType.FREE_TIME)
+                                .setStatus(status)
+                                .setBuildingId(buildingID)
+                                .setRoomId(request.getRoomId())
+                                .setText(status == Status.INVALID_IDS ? "Free time query failed, invalid building ID"
+                                        : "Free time query failed, the building does not answer it"));
+                        return;
+                    }
 
-                    sendDirectTo(AGENT_BUILDING_EXCHANGE, buildingID, "CANCEL_BOOKING " + reservationID + " " + agentID + " " + roomID);
+                    forwardToBuilding(buildingID, customerRoutingKey, customerProperties, new Command(RequestType.FREE_TIME_QUERY)
+                            .setCustomerId(request.getCustomerId())
+                            .setAgentId(agentID)
+                            .setRoomId(request.getRoomId())
+                            .setTimeRange(request.getTimeRange()));
                 }
             }
         }
     }
 
+    // Bind the queue that will listen to the building responses to the exchange, the routing key is the agentID
+    // The agent declares the BUILDING_AGENT_EXCHANGE as well, so that it can bind before any building is running
+    private synchronized void bindToBuildingResponses() throws IOException {
+        if (!boundToBuildingResponses) {
+            transport.exchangeDeclare(BUILDING_AGENT_EXCHANGE, ExchangeType.DIRECT);
+            transport.queueBind(agentID + "Queue", BUILDING_AGENT_EXCHANGE, agentID);
+            boundToBuildingResponses = true;
+        }
+    }
+
+    // Sends a request to a building and remembers which customer is waiting for the answer
+    private void forwardToBuilding(String buildingID, String customerRoutingKey, MessageProperties customerProperties, Command request) throws IOException {
+        boolean legacy = legacyBuildings.contains(buildingID);
+        if (legacy && request.getTimeRange() != null) {
+            METRICS.count(request.getType(), Status.REJECTED);
+            sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(invalidDetailsTypeOf(request.getType()))
+                    .setStatus(Status.REJECTED)
+                    .setBuildingId(buildingID)
+                    .setRoomId(request.getRoomId())
+                    .setText("The building only books rooms for all time, it does not take a time range"));
+            return;
+        }
 
-    //todo make a nice controller with switch-case based on the response from the building
-    private void handleBuildingMessage(String message) throws IOException {
-        String[] messageParts = message.split(" ");
+        long number = nextCorrelationId.incrementAndGet();
+        String correlationId = Long.toString(number, 36);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        pendingRequests.put(correlationId, new PendingRequest(number, buildingID, customerRoutingKey, customerProperties, request.getType(), deadline));
 
-        RequestType requestType = RequestType.valueOf(messageParts[0]);
+        MessageProperties properties = new MessageProperties(correlationId, agentID, customerProperties.getTrace());
+        if (legacy) {
+            // the response comes back without the correlation ID, see removeLegacyRequest
+            transport.publish(AGENT_BUILDING_EXCHANGE, buildingID, properties, CommandCodec.encodeLegacy(request, LegacyFormat.BUILDING_REQUEST));
+            return;
+        }
 
-        String messageReceived = message.substring(requestType.toString().length() + 1); // Get the message without the response type
-        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, latestRequestCustomerId, messageReceived);
+        sendDirectTo(AGENT_BUILDING_EXCHANGE, buildingID, properties, request);
+    }
+
+    // Legacy buildings answer their requests one after the other and name neither themselves nor the customer in the
+    // response, so it belongs to the oldest pending request of a legacy building that it is an answer to
+    private PendingRequest removeLegacyRequest(Command response) {
+        Map.Entry<String, PendingRequest> oldest = null;
+        for (Map.Entry<String, PendingRequest> entry : pendingRequests.entrySet()) {
+            PendingRequest pendingRequest = entry.getValue();
+            if (!legacyBuildings.contains(pendingRequest.buildingId) || !isAnswerTo(response.getType(), pendingRequest.type))
+                continue;
+            if (oldest == null || pendingRequest.number < oldest.getValue().number)
+                oldest = entry;
+        }
 
+        return oldest != null && pendingRequests.remove(oldest.getKey(), oldest.getValue()) ? oldest.getValue() : null;
+    }
+
+    private static boolean isAnswerTo(RequestType response, RequestType request) {
+        RequestType done = switch (request) {
+            case MAKE_BOOKING -> RequestType.BOOKING_MADE;
+            case CONFIRM_BOOKING -> RequestType.BOOKING_CONFIRMED;
+            case FREE_TIME_QUERY -> RequestType.FREE_TIME;
+            default -> RequestType.BOOKING_CANCELLED;
+        };
+
+        return response == done || response == invalidDetailsTypeOf(request);
+    }
+
+    // The response type for a booking request that could not be done
+    private static RequestType invalidDetailsTypeOf(RequestType request) {
+        return switch (request) {
+            case MAKE_BOOKING -> RequestType.INVALID_BOOKING_DETAILS;
+            case CONFIRM_BOOKING -> RequestType.INVALID_CONFIRMATION_DETAILS;
+            case FREE_TIME_QUERY -> RequestType.FREE_TIME;
+            default -> RequestType.INVALID_CANCELLATION_DETAILS;
+        };
+    }
+
+
+    // Forwards the response of a building to the customer that made the request
+    private void handleBuildingMessage(MessageProperties properties, Command response) throws IOException {
+        if (response.getType() == RequestType.BUILDING_STATE) {
+            // the answer to a BUILDING_STATE_REQUEST
+            handleBuildingUpdate(response);
+            return;
+        }
+
+        if (response.getType() == RequestType.HOLD_EXPIRED) {
+            // not an answer to a request, the building tells the customer that its reservation is gone
+            sendDirectTo(AGENT_CUSTOMER_EXCHANGE, response.getCustomerId(), MessageProperties.EMPTY, response);
+            return;
+        }
+
+        PendingRequest pendingRequest = properties.getCorrelationId() != null ? pendingRequests.remove(properties.getCorrelationId())
+                : removeLegacyRequest(response);
+
+        if (pendingRequest == null) {
+            // the request has timed out already
+            LOG.warn("Dropped a building response without a pending request '{}'", response);
+            return;
+        }
+
+        // the deadline was set a request timeout after forwarding the request
+        BUILDING_NANOS.record(System.nanoTime() - (pendingRequest.deadline - TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis)));
+        METRICS.count(pendingRequest.type, response.getStatus());
+
+        // the response continues the trace where the building left it
+        sendDirectTo(AGENT_CUSTOMER_EXCHANGE, pendingRequest.customerRoutingKey, pendingRequest.customerProperties.withTrace(properties.getTrace()), response);
+    }
+
+    // Answers the customers whose requests were not answered by a building in time
+    private void expirePendingRequests() {
+        long now = System.nanoTime();
+
+        Iterator<Map.Entry<String, PendingRequest>> iterator = pendingRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, PendingRequest> entry = iterator.next();
+            PendingRequest pendingRequest = entry.getValue();
+
+            // remove(key, value) loses against a response that arrives at the same moment
+            if (now - pendingRequest.deadline >= 0 && pendingRequests.remove(entry.getKey(), pendingRequest)) {
+                METRICS.count(pendingRequest.type, Status.TIMEOUT);
+                try {
+                    sendDirectTo(AGENT_CUSTOMER_EXCHANGE, pendingRequest.customerRoutingKey, pendingRequest.customerProperties, new Command(RequestType.REQUEST_TIMEOUT)
+                            .setStatus(Status.TIMEOUT)
+                            .setText(pendingRequest.type + " request timed out, the building did not respond"));
+                } catch (IOException e) {
+                    LOG.error("Answering a timed out request failed", e);
+                }
+            }
+        }
+    }
+
+    // Sends the page the query asks for, or with streaming that page and all after it, one message each.
+    // Every page but the last is a BUILDINGS_LIST_PAGE, the BUILDINGS_LIST at the end tells the customer that the list is complete.
+    private void sendBuildingListPages(String customerRoutingKey, MessageProperties customerProperties, BuildingListQuery query) throws IOException {
+        String after = query.getAfter();
+
+        while (true) {
+            // one more than the limit shows whether another page follows
+            List<BuildingSnapshot> page = buildings.page(after, query.getLimit() + 1);
+            boolean last = page.size() <= query.getLimit();
+            if (!last)
+                page = page.subList(0, query.getLimit());
+
+            sendDirectTo(AGENT_CUSTOMER_EXCHANGE, customerRoutingKey, customerProperties, new Command(last ? RequestType.BUILDINGS_LIST : RequestType.BUILDINGS_LIST_PAGE)
+                    .setText(BuildingRegistry.describe(page)));
+
+            if (last || !query.isStream())
+                return;
+            after = page.get(page.size() - 1).getBuildingId();
+        }
+    }
+
+    // Returns the cached list response, it is only encoded again after the registry has changed
+    private byte[] encodedBuildingsList() {
+        EncodedResponse cached = buildingsList;
+        long version = buildings.getVersion();
+        if (cached.version == version)
+            return cached.body;
+
+        // the version is read before the registry, so a concurrent update leaves the cache outdated and it is rebuilt next time
+        byte[] body = CommandCodec.encode(new Command(RequestType.BUILDINGS_LIST).setText(buildings.toString()));
+        buildingsList = new EncodedResponse(version, body);
+
+        return body;
+    }
+
+    private static class EncodedResponse {
+        private final long version;
+        // shared by every publish, never modified
+        private final byte[] body;
+
+        private EncodedResponse(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    private static class PendingRequest {
+        // the number the correlation ID was made from, orders the requests
+        private final long number;
+        private final String buildingId;
+        private final String customerRoutingKey;
+        // carries the customer's own correlation ID back to it
+        private final MessageProperties customerProperties;
+        private final RequestType type;
+        private final long deadline;
+
+        private PendingRequest(long number, String buildingId, String customerRoutingKey, MessageProperties customerProperties, RequestType type, long deadline) {
+            this.number = number;
+            this.buildingId = buildingId;
+            this.customerRoutingKey = customerRoutingKey;
+            this.customerProperties = customerProperties;
+            this.type = type;
+            this.deadline = deadline;
+        }
     }
 
 }
@@ -1,32 +1,92 @@
 package system;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.DeliverCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import system.metrics.LatencyHistogram;
+import system.metrics.Metrics;
+import system.protocol.Command;
+import system.tracing.Tracing;
+import system.protocol.CommandCodec;
+import system.protocol.LegacyFormat;
+import system.protocol.Status;
+import system.transport.AcknowledgedDeliveryHandler;
+import system.transport.DeliveryHandler;
+import system.transport.ExchangeType;
+import system.transport.MessageProperties;
+import system.transport.Transport;
+import system.transport.Transports;
+import system.utils.ConcurrentLongMap;
+import system.utils.HashedWheelTimer;
+import system.utils.Ids;
 import system.utils.RequestType;
+import system.utils.StripedExecutor;
+import system.utils.TimeRange;
 import system.utils.Utility;
+import system.wal.BuildingStateStore;
+import system.wal.WriteAheadLog;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class Building {
-    private Channel channel;
-    private Connection connection;
-    private final ObjectMapper mapper;
+    private Transport transport;
     @JsonProperty("buildingID")
     private final String buildingID;
-    @JsonProperty("rooms")
-    private List<Room> rooms;
-    private List<Reservation> reservations;
+    // the rooms with their ID index, so that every request is answered without scanning the rooms
+    private final RoomTable rooms;
+    // keyed by the IDs as longs, only requests and replies carry them as text
+    private final ConcurrentLongMap<Reservation> reservationsById;
+    // reservationId -> scheduled expiry of a reservation that is not confirmed yet
+    private final ConcurrentLongMap<HashedWheelTimer.Timeout> holdExpiries;
+    private final long holdTtlMillis;
+    private final boolean notifyExpiredHolds;
+    // the durable copy of the rooms and reservations, null if the state only lives in memory
+    private final BuildingStateStore stateStore;
+    // number of the last change of the rooms announced to the agents, lets them notice missed changes
+    private final AtomicLong stateSequence = new AtomicLong();
+    // Requests for a room hold the read lock and the lock of the Room, so requests for different rooms run in parallel.
+    // Reading the whole building and taking snapshots hold the write lock.
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    // requests received and not handled yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // the gauges of this building, removed when it is closed
+    private final List<Metrics.Gauge> gauges = new ArrayList<>();
+
+    // -Dconferencerent.building.holdTtlMs, how long a reservation holds a room before it has to be confirmed, 0 holds forever
+    private static final String HOLD_TTL_PROPERTY = "conferencerent.building.holdTtlMs";
+    // -Dconferencerent.building.notifyExpiredHolds, whether the agent and customer are told about expired holds
+    private static final String NOTIFY_EXPIRED_HOLDS_PROPERTY = "conferencerent.building.notifyExpiredHolds";
+    // -Dconferencerent.building.dataDir, directory for the snapshots and write-ahead logs of the buildings, unset keeps the state in memory only
+    private static final String DATA_DIR_PROPERTY = "conferencerent.building.dataDir";
+    // -Dconferencerent.building.snapshotEvery, number of logged changes after which a new snapshot is taken
+    private static final String SNAPSHOT_EVERY_PROPERTY = "conferencerent.building.snapshotEvery";
+    // -Dconferencerent.building.walChunkSize, bytes of the write-ahead log mapped at a time, overrides the default of the process
+    private static final String WAL_CHUNK_SIZE_PROPERTY = "conferencerent.building.walChunkSize";
+    // -Dconferencerent.building.workers, threads shared by all buildings of the process that handle requests for different rooms
+    // in parallel, 0 handles the requests of a building one after the other on the thread of its consumer
+    private static final String WORKERS_PROPERTY = "conferencerent.building.workers";
+    // -Dconferencerent.building.prefetch, requests of a building that are handed to the workers before they are acknowledged
+    private static final String PREFETCH_PROPERTY = "conferencerent.building.prefetch";
+    // rooms listed at most in the answer to a FREE_TIME_QUERY for the whole building
+    private static final int MAX_FREE_ROOMS = 1000;
+    private static StripedExecutor workers;
+    private static final Logger LOG = LoggerFactory.getLogger(Building.class);
+    private static final Metrics METRICS = Metrics.forRole("building");
+    // time spent in handleAgentMessage, and the time a request waits for a worker
+    private static final LatencyHistogram HANDLE_NANOS = METRICS.histogram("handle_nanos");
+    private static final LatencyHistogram QUEUE_NANOS = METRICS.histogram("queue_nanos");
+    // shared by all buildings of the process, 100 ms ticks and a 512 tick wheel
+    private static final HashedWheelTimer HOLD_TIMER = new HashedWheelTimer("hold-expiry", 100, TimeUnit.MILLISECONDS, 512);
 
 
     // the exchange where the messages from the building to the agents are sent
@@ -35,212 +95,717 @@ public class Building {
     private static final String AGENT_BUILDING_EXCHANGE = "agentBuildExchange";
     // the exchange where the building information is sent to
     private static final String AGENT_BUILDING_FANOUT_EXCHANGE = "agentBuildFanoutExchange";
+    // the exchange where starting agents ask all buildings for their state
+    private static final String BUILDING_SYNC_EXCHANGE = "buildingSyncExchange";
 
+    // Arguments: [buildingID] [roomCount], a building with a data directory restarts with the state of the same ID
     public static void main(String[] args) throws IOException, TimeoutException {
-        Building building = new Building();
+        String buildingID = args.length > 0 ? args[0] : Ids.nextText();
+        int roomCount = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Building building = new Building(Transports.create(), buildingID, roomCount);
         building.start();
     }
 
     public Building(@JsonProperty("buildingID") String buildingID, @JsonProperty("rooms") List<Room> rooms) {
-        this.mapper = new ObjectMapper();
         this.buildingID = buildingID;
-        this.rooms = rooms;
+        this.rooms = tableOf(rooms);
+        this.reservationsById = new ConcurrentLongMap<>();
+        this.holdExpiries = new ConcurrentLongMap<>();
+        this.holdTtlMillis = Long.getLong(HOLD_TTL_PROPERTY, 15 * 60 * 1000);
+        this.notifyExpiredHolds = Boolean.parseBoolean(System.getProperty(NOTIFY_EXPIRED_HOLDS_PROPERTY, "true"));
+        this.stateStore = null;
+    }
+
+    public Building(Transport transport) {
+        this(transport, 3);
+    }
+
+    // A building with the given number of new, free rooms
+    public Building(Transport transport, int roomCount) {
+        this(transport, Ids.nextText(), roomCount);
+    }
+
+    // A building with the given ID. With a data directory configured, the rooms and reservations of an earlier run
+    // of the building are recovered, otherwise it gets the given number of new, free rooms.
+    public Building(Transport transport, String buildingID, int roomCount) {
+        this(transport, buildingID, roomCount, WriteAheadLog.DEFAULT_CHUNK_SIZE);
+    }
+
+    // walChunkSize is the size of the mapped chunks of the write-ahead log unless -Dconferencerent.building.walChunkSize is set
+    Building(Transport transport, String buildingID, int roomCount, int walChunkSize) {
+        this.transport = transport;
+        this.buildingID = buildingID;
+        this.rooms = new RoomTable(roomCount);
+        this.reservationsById = new ConcurrentLongMap<>();
+        this.holdExpiries = new ConcurrentLongMap<>();
+        this.holdTtlMillis = Long.getLong(HOLD_TTL_PROPERTY, 15 * 60 * 1000);
+        this.notifyExpiredHolds = Boolean.parseBoolean(System.getProperty(NOTIFY_EXPIRED_HOLDS_PROPERTY, "true"));
+
+        try {
+            this.stateStore = openStateStore(Integer.getInteger(WAL_CHUNK_SIZE_PROPERTY, walChunkSize));
+
+            if (stateStore != null && stateStore.isRecovered()) {
+                LOG.info("Recovered building {} with {} rooms and {} reservations", buildingID, rooms.size(), reservationsById.size());
+                // holds that were running when the building stopped expire after the time they had left
+                for (Reservation reservation : reservationsById.values()) {
+                    if (!reservation.isConfirmed())
+                        scheduleHoldExpiry(reservation);
+                }
+            } else {
+                for (int i = 0; i < roomCount; i++)
+                    rooms.add(Ids.next());
+                // the first snapshot keeps the room IDs for the next run
+                if (stateStore != null)
+                    stateStore.snapshot(this::writeState);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        gauges.add(METRICS.gauge("rooms", rooms::size));
+        gauges.add(METRICS.gauge("free_rooms", rooms::freeCount));
+        gauges.add(METRICS.gauge("reservations", reservationsById::size));
+        gauges.add(METRICS.gauge("in_flight", inFlight::get));
+    }
+
+    private BuildingStateStore openStateStore(int walChunkSize) throws IOException {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        if (dataDir == null || dataDir.isEmpty())
+            return null;
+
+        return BuildingStateStore.open(Path.of(dataDir), buildingID, Integer.getInteger(SNAPSHOT_EVERY_PROPERTY, 10000), walChunkSize, new StateReplay());
     }
 
-    public Building() {
-        this.mapper = new ObjectMapper();
-        this.rooms = List.of(new Room(), new Room(), new Room());
-        this.buildingID = UUID.randomUUID().toString().substring(0, 8);
-        this.reservations = new ArrayList<>();
+    // Copies rooms made outside of a building into a table of its own
+    private static RoomTable tableOf(List<Room> rooms) {
+        RoomTable table = new RoomTable(rooms.size());
+        for (Room room : rooms) {
+            Room copy = table.room(table.add(room.getRoomId()));
+            for (Reservation reservation : room.getCalendar().getReservations())
+                copy.reserve(reservation);
+        }
+
+        return table;
     }
 
-    private void start() throws IOException, TimeoutException {
-        initRabbitMq();
+    public void start() throws IOException {
+        initMessaging();
         startListeningForMessages();
         // send building info to the fanout exchange once building is created
         sendBuildingInformation();
     }
 
+    // Stops the hold expiries of the building, takes its gauges out of the metrics of the process and closes its
+    // state, after the changes that are still pending are on disk. The transport is left to its owner.
+    public void close() throws IOException {
+        for (HashedWheelTimer.Timeout holdExpiry : holdExpiries.values())
+            holdExpiry.cancel();
+        for (Metrics.Gauge gauge : gauges)
+            gauge.remove();
+        gauges.clear();
+
+        if (stateStore != null)
+            stateStore.close();
+    }
+
     private void sendBuildingInformation() throws IOException {
-        String message = this.toString();
+        Command state = buildingState();
+
+        transport.publish(AGENT_BUILDING_FANOUT_EXCHANGE, "", CommandCodec.encode(state));
 
-        channel.basicPublish(AGENT_BUILDING_FANOUT_EXCHANGE, "", null, message.getBytes());
+        LOG.debug("Sent Building ID: {} with info: {}", buildingID, state.getText());
+    }
+
+    // The full state, numbered with the last change announced to the agents
+    private Command buildingState() {
+        stateLock.writeLock().lock();
+        try {
+            return new Command(RequestType.BUILDING_STATE)
+                    .setBuildingId(buildingID)
+                    .setSequence(stateSequence.get())
+                    .setText(toString());
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
 
-        System.out.println("[x] Sent Building ID: " + buildingID + " with info: " + message);
+    // Numbers a change of the room, called while holding the lock of the room. Changes of different rooms may be sent out
+    // of the order of their numbers, an agent that sees a gap asks for the full state.
+    private Command roomChanged(Room room) {
+        return new Command(RequestType.BUILDING_DELTA)
+                .setBuildingId(buildingID)
+                .setSequence(stateSequence.incrementAndGet())
+                .setText("[" + room + "]");
     }
 
-    // Precondition: Agents have to be running first!!!
-    private void initRabbitMq() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+    // Tells the agents about a changed room, instead of sending them the whole building again
+    private void sendBuildingDelta(Command delta) throws IOException {
+        transport.publish(AGENT_BUILDING_FANOUT_EXCHANGE, "", CommandCodec.encode(delta));
 
+        LOG.debug("Sent Building ID: {} change {}: {}", buildingID, delta.getSequence(), delta.getText());
+    }
+
+    // Buildings can start before the agents, an agent that starts later asks them for their state
+    private void initMessaging() throws IOException {
         // Declare the fanout exchange to send building information
-        channel.exchangeDeclare(AGENT_BUILDING_FANOUT_EXCHANGE, "fanout");
+        transport.exchangeDeclare(AGENT_BUILDING_FANOUT_EXCHANGE, ExchangeType.FANOUT);
 
         // Declare the exchange where the building sends messages to the agents
-        channel.exchangeDeclare(BUILDING_AGENT_EXCHANGE, "direct");
+        transport.exchangeDeclare(BUILDING_AGENT_EXCHANGE, ExchangeType.DIRECT);
+
+        // Declare the exchange where the agents send requests to the building
+        transport.exchangeDeclare(AGENT_BUILDING_EXCHANGE, ExchangeType.DIRECT);
 
         // Declare the queue for the agents to pour requests into
-        channel.queueDeclare(buildingID+"Queue", false, false, false, null);
-        channel.queueBind(buildingID+"Queue", AGENT_BUILDING_EXCHANGE, buildingID);
+        transport.queueDeclare(buildingID+"Queue");
+        transport.queueBind(buildingID+"Queue", AGENT_BUILDING_EXCHANGE, buildingID);
+
+        // Agents that start after the building ask for its state here
+        transport.exchangeDeclare(BUILDING_SYNC_EXCHANGE, ExchangeType.FANOUT);
+        transport.queueBind(buildingID+"Queue", BUILDING_SYNC_EXCHANGE, "");
     }
 
 
     private void startListeningForMessages() throws IOException {
-        // Callback for receiving the list of buildings
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String messageReceived = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            handleAgentMessage(messageReceived);
+        StripedExecutor workers = workers();
+        if (workers == null) {
+            // Callback for receiving the requests of the agents. A failed request is logged here, the consumer threads
+            // and connection may be shared with other buildings.
+            DeliveryHandler deliveryHandler = (properties, body) -> {
+                inFlight.incrementAndGet();
+                try {
+                    handleAgentMessage(properties, CommandCodec.decode(body, LegacyFormat.BUILDING_REQUEST));
+                } catch (Exception e) {
+                    LOG.error("Handling a request of an agent for building {} failed", buildingID, e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            };
+
+            // Listen on the building's queue for requests
+            transport.consume(buildingID+"Queue", deliveryHandler);
+            return;
+        }
+
+        // Requests for the same room run on the same worker in the order they arrived, requests for other rooms in parallel
+        AcknowledgedDeliveryHandler deliveryHandler = (properties, body, acknowledge) -> {
+            Command request;
+            try {
+                request = CommandCodec.decode(body, LegacyFormat.BUILDING_REQUEST);
+            } catch (RuntimeException e) {
+                acknowledge.run();
+                LOG.error("Decoding a request of an agent for building {} failed", buildingID, e);
+                return;
+            }
+
+            Room room = roomOf(request);
+            long receivedAt = System.nanoTime();
+            inFlight.incrementAndGet();
+            workers.execute(room != null ? room : this, () -> {
+                QUEUE_NANOS.record(System.nanoTime() - receivedAt);
+                try {
+                    handleAgentMessage(properties, request);
+                } catch (Exception e) {
+                    LOG.error("Handling a request of an agent failed", e);
+                } finally {
+                    inFlight.decrementAndGet();
+                    acknowledge.run();
+                }
+            });
         };
 
-        // Listen on the customer's queue for responses
-        channel.basicConsume(buildingID+"Queue", true, deliverCallback, consumerTag -> {});
+        transport.consume(buildingID+"Queue", Integer.getInteger(PREFETCH_PROPERTY, 256), deliveryHandler);
     }
 
-    private void handleAgentMessage(String messageReceived) throws IOException {
-        String typeOfResponse = messageReceived.split(" ")[0];
-        RequestType requestType = RequestType.valueOf(messageReceived.split(" ")[0]);
+    private static synchronized StripedExecutor workers() {
+        int workerCount = Integer.getInteger(WORKERS_PROPERTY, 0);
+        if (workers == null && workerCount > 0)
+            workers = new StripedExecutor("building-worker", workerCount);
 
-        // remove the type of response from the message
-        messageReceived = messageReceived.substring(typeOfResponse.length() + 1);
-        switch (requestType) {
-            case MAKE_BOOKING -> {
-                String roomID = messageReceived.split(" ")[0]; // now roomId is [0] because we have already omitted the response type
-                String customerID = messageReceived.split(" ")[1];
-                String agentID = messageReceived.split(" ")[2];
+        return workers;
+    }
 
-                System.out.println("Received a request to book room with ID: " + roomID + " from customer: " + customerID + " thru agent: " + agentID);
+    // The room a request may change, for confirmations and cancellations the room of the reservation
+    private Room roomOf(Command request) {
+        if (request.getReservationId() != null) {
+            Reservation reservation = reservationsById.get(Ids.parse(request.getReservationId()));
+            if (reservation != null)
+                return rooms.find(reservation.getRoomId());
+        }
 
-                // find the room with the given ID
-                Room room = rooms.stream().filter(r -> r.getRoomId().equals(roomID)).findFirst().orElse(null);
+        return rooms.find(Ids.parse(request.getRoomId()));
+    }
+
+    private void handleAgentMessage(MessageProperties properties, Command request) throws IOException {
+        Tracing.received(properties.getTrace(), "agent_to_building.queue");
+        long startMicros = Tracing.nowMicros();
+        long start = System.nanoTime();
+        try {
+            if (request.getType() == RequestType.BUILDING_STATE_REQUEST) {
+                // an agent that started or missed a change gets the full state
+                METRICS.count(RequestType.BUILDING_STATE_REQUEST, Status.OK);
+                respond(properties, request.getAgentId(), buildingState());
+                return;
+            }
 
+            inRoom(roomOf(request), () -> handleRoomRequest(properties, request));
+        } finally {
+            HANDLE_NANOS.record(System.nanoTime() - start);
+            Tracing.span(properties.getTrace(), "building.handle", startMicros, Tracing.nowMicros());
+        }
+    }
 
+    // Runs while holding the lock of the room the request may change
+    private void handleRoomRequest(MessageProperties properties, Command request) throws IOException {
+        switch (request.getType()) {
+            case MAKE_BOOKING -> {
+                String roomID = request.getRoomId();
+                String customerID = request.getCustomerId();
+                String agentID = request.getAgentId();
+                // a booking without a time range takes the room for all time
+                TimeRange timeRange = request.getTimeRange() != null ? request.getTimeRange() : TimeRange.ALL;
 
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Received a request to book room with ID: {}{} from customer: {} thru agent: {}", roomID, forTime(timeRange), customerID, agentID);
+
+                // find the room with the given ID
+                Room room = rooms.find(Ids.parse(roomID));
+                // the reservation that already takes part of the requested time
+                Reservation overlap = room == null ? null : room.findOverlap(timeRange);
 
                 // send back a response to the same agent that has sent the request
                 if (room == null) {
                     // respond the agent that the room does not exist
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_BOOKING_DETAILS can't book a room with ID: " + roomID + ", it is does not exist");
-                } else if (reservationsContainNotConfirmedBooking(roomID)) {
+                    respond(properties, agentID, response(RequestType.INVALID_BOOKING_DETAILS, Status.ROOM_NOT_FOUND, request)
+                            .setText("can't book a room with ID: " + roomID + ", it is does not exist"));
+                } else if (overlap != null && !overlap.isConfirmed()) {
                     // respond the agent that the room is already reserved
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_BOOKING_DETAILS can't book a room with ID: " + roomID + ", it is already reserved, though not confirmed");
+                    respond(properties, agentID, response(RequestType.INVALID_BOOKING_DETAILS, Status.ROOM_RESERVED, request)
+                            .setText("can't book a room with ID: " + roomID + forTime(timeRange) + ", it is already reserved, though not confirmed"));
                 }
-                else if (room.isBooked()) {
+                else if (overlap != null) {
                     // respond the agent that the room is already booked
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_BOOKING_DETAILS can't book a room with ID: " + roomID + ", it is already booked");
+                    respond(properties, agentID, response(RequestType.INVALID_BOOKING_DETAILS, Status.ROOM_BOOKED, request)
+                            .setText("can't book a room with ID: " + roomID + forTime(timeRange) + ", it is already booked"));
                 }
                 else {
-                    // Add a reservation to the list
-                    String reservationId = UUID.randomUUID().toString().substring(0, 8);
-                    reservations.add(new Reservation(reservationId, customerID, roomID, agentID));
+                    // Add a reservation to the indexes
+                    long reservationId = Ids.next();
+                    String reservationID = Ids.toText(reservationId);
+                    Reservation reservation = new Reservation(reservationId, customerID, room.getRoomId(), buildingID, agentID);
+                    reservation.setTimeRange(timeRange);
+                    if (holdTtlMillis > 0)
+                        reservation.setHoldExpiresAt(System.currentTimeMillis() + holdTtlMillis);
+                    applyReserved(reservation);
+                    scheduleHoldExpiry(reservation);
                     // respond the agent that the booking request was successful
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "BOOKING_MADE reservation for room with ID: " + roomID + " was registered, awaiting booking confirmation with RESERVATION_ID " + reservationId);
+                    commit(log -> log.reserved(reservationID, room.getRoomIdText(), customerID, agentID, reservation.getHoldExpiresAt(), timeRange),
+                            () -> publishResponse(properties, agentID, response(RequestType.BOOKING_MADE, Status.OK, request)
+                                    .setReservationId(reservationID)
+                                    .setText("reservation for room with ID: " + roomID + forTime(timeRange) + " was registered, awaiting booking confirmation with RESERVATION_ID " + reservationID)));
                 }
 
             }
             case CONFIRM_BOOKING -> {
+                String reservationID = request.getReservationId();
+                String agentID = request.getAgentId();
+                String roomID = request.getRoomId();
 
-                String reservationID = messageReceived.split(" ")[0];
-                String agentID = messageReceived.split(" ")[1];
-                String roomID = messageReceived.split(" ")[2];
+                LOG.debug("Received a request to confirm booking with reservation ID: {} from agent: {}", reservationID, agentID);
 
-                System.out.println("Received a request to confirm booking with reservation ID: " + reservationID + " from agent: " + agentID);
-
-                Room room = rooms.stream().filter(r -> r.getRoomId().equals(roomID)).findFirst().orElse(null);
+                Room room = rooms.find(Ids.parse(roomID));
 
                 if (room == null) {
                     // respond the agent that the room does not exist
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CONFIRMATION_DETAILS can't confirm a reservation with ID: " + reservationID + ", the room does not exist");
-                    return;
-                } else if (room.isBooked()) {
-                    // respond to the agent that the room is already booked
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CONFIRMATION_DETAILS can't confirm a reservation with ID: " + reservationID + ", the room is already booked");
+                    respond(properties, agentID, response(RequestType.INVALID_CONFIRMATION_DETAILS, Status.ROOM_NOT_FOUND, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", the room does not exist"));
                     return;
                 }
 
                 // find the reservation with the given ID
-                Reservation reservation = reservations.stream().filter(r -> r.getReservationId().equals(reservationID)).findFirst().orElse(null);
-
+                Reservation reservation = reservationsById.get(Ids.parse(reservationID));
 
                 if (reservation == null) {
                     // respond the agent that the reservation id is incorrect
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CONFIRMATION_DETAILS can't confirm a reservation with ID: " + reservationID + ", it doesn't exist");
+                    respond(properties, agentID, response(RequestType.INVALID_CONFIRMATION_DETAILS, Status.RESERVATION_NOT_FOUND, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", it doesn't exist"));
+                } else if (reservation.isConfirmed()) {
+                    // respond to the agent that the room is already booked
+                    respond(properties, agentID, response(RequestType.INVALID_CONFIRMATION_DETAILS, Status.ROOM_BOOKED, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", the room is already booked"));
+                } else if (!matchesTimeRange(request, reservation)) {
+                    // respond to the agent that the request is for a different time than the reservation
+                    respond(properties, agentID, response(RequestType.INVALID_CONFIRMATION_DETAILS, Status.TIME_RANGE_MISMATCH, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", it is for " + reservation.getTimeRange()));
                 } else {
-                    // find the room with the given ID
-                    Room roomToBook = rooms.stream().filter(r -> r.getRoomId().equals(reservation.getRoomId())).findFirst().orElse(null);
-                    roomToBook.book();
-                    // respond the agent that the room was booked successfully
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "BOOKING_CONFIRMED booking with reservation ID: " + reservationID + " was confirmed successfully");
-                    // Update the building information with the new booking status
-                    sendBuildingInformation();
+                    applyConfirmed(reservation);
+                    // respond the agent that the room was booked successfully and update the building information with the new booking status
+                    commitRoomChange(rooms.find(reservation.getRoomId()), log -> log.confirmed(Ids.toText(reservation.getReservationId())),
+                            () -> publishResponse(properties, agentID, response(RequestType.BOOKING_CONFIRMED, Status.OK, request)
+                                    .setTimeRange(timeRangeOf(reservation))
+                                    .setText("booking with reservation ID: " + reservationID + " was confirmed successfully")));
                 }
 
             }
             case CANCEL_BOOKING -> {
-                String reservationID = messageReceived.split(" ")[0];
-                String agentID = messageReceived.split(" ")[1];
-                String roomID = messageReceived.split(" ")[2];
+                String reservationID = request.getReservationId();
+                String agentID = request.getAgentId();
+                String roomID = request.getRoomId();
 
-                System.out.println("Received a request to confirm booking with reservation ID: " + reservationID + " from agent: " + agentID);
+                LOG.debug("Received a request to cancel booking with reservation ID: {} from agent: {}", reservationID, agentID);
 
-                Room room = rooms.stream().filter(r -> r.getRoomId().equals(roomID)).findFirst().orElse(null);
+                Room room = rooms.find(Ids.parse(roomID));
 
                 if (room == null) {
                     // respond the agent that the room does not exist
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CANCELLATION_DETAILS can't confirm a reservation with ID: " + reservationID + ", the room does not exist");
-                    return;
-                } else if (!room.isBooked()) {
-                    // respond to the agent that the room is already booked
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CANCELLATION_DETAILS can't confirm a reservation with ID: " + reservationID + ", the room is not booked");
+                    respond(properties, agentID, response(RequestType.INVALID_CANCELLATION_DETAILS, Status.ROOM_NOT_FOUND, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", the room does not exist"));
                     return;
                 }
 
                 // find the reservation with the given ID
-                Reservation reservation = reservations.stream().filter(r -> r.getReservationId().equals(reservationID)).findFirst().orElse(null);
+                Reservation reservation = reservationsById.get(Ids.parse(reservationID));
 
                 if (reservation == null) {
                     // respond the agent that the reservation id is incorrect
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "INVALID_CANCELLATION_DETAILS can't cancel a reservation with ID: " + reservationID + ", it doesn't exist");
+                    respond(properties, agentID, response(RequestType.INVALID_CANCELLATION_DETAILS, Status.RESERVATION_NOT_FOUND, request)
+                            .setText("can't cancel a reservation with ID: " + reservationID + ", it doesn't exist"));
+                } else if (!reservation.isConfirmed()) {
+                    // respond to the agent that the room is not booked
+                    respond(properties, agentID, response(RequestType.INVALID_CANCELLATION_DETAILS, Status.ROOM_NOT_BOOKED, request)
+                            .setText("can't confirm a reservation with ID: " + reservationID + ", the room is not booked"));
+                } else if (!matchesTimeRange(request, reservation)) {
+                    // respond to the agent that the request is for a different time than the booking
+                    respond(properties, agentID, response(RequestType.INVALID_CANCELLATION_DETAILS, Status.TIME_RANGE_MISMATCH, request)
+                            .setText("can't cancel a booking with ID: " + reservationID + ", it is for " + reservation.getTimeRange()));
                 } else {
-                    // find the room with the given ID
-                    Room roomToCancel = rooms.stream().filter(r -> r.getRoomId().equals(reservation.getRoomId())).findFirst().orElse(null);
-                    roomToCancel.cancelBooking();
-                    // remove the reservation from the list
-                    reservations.remove(reservation);
-                    // respond the agent that the room was booked successfully
-                    sendDirectTo(BUILDING_AGENT_EXCHANGE, agentID, "BOOKING_CANCELLED booking with ID: " + reservationID + " was cancelled successfully");
-                    // Update the building information with the new booking status
-                    sendBuildingInformation();
+                    applyCancelled(reservation);
+                    // respond the agent that the booking was cancelled successfully and update the building information with the new booking status
+                    commitRoomChange(rooms.find(reservation.getRoomId()), log -> log.cancelled(Ids.toText(reservation.getReservationId())),
+                            () -> publishResponse(properties, agentID, response(RequestType.BOOKING_CANCELLED, Status.OK, request)
+                                    .setTimeRange(timeRangeOf(reservation))
+                                    .setText("booking with ID: " + reservationID + " was cancelled successfully")));
                 }
 
             }
+            case FREE_TIME_QUERY -> {
+                TimeRange timeRange = request.getTimeRange() != null ? request.getTimeRange() : TimeRange.ALL;
+
+                if (request.getRoomId() == null) {
+                    respond(properties, request.getAgentId(), response(RequestType.FREE_TIME, Status.OK, request)
+                            .setText(freeRoomsDuring(timeRange).toString()));
+                    return;
+                }
+
+                Room room = rooms.find(Ids.parse(request.getRoomId()));
+                if (room == null) {
+                    respond(properties, request.getAgentId(), response(RequestType.FREE_TIME, Status.ROOM_NOT_FOUND, request)
+                            .setText("can't look up the free time of a room with ID: " + request.getRoomId() + ", it does not exist"));
+                } else {
+                    respond(properties, request.getAgentId(), response(RequestType.FREE_TIME, Status.OK, request)
+                            .setText(room.getCalendar().freeRanges(timeRange).toString()));
+                }
+            }
             default -> {
             }
         }
     }
 
-    private void sendDirectTo(String exchange, String routingKey, String messageToSend) throws IOException {
-        channel.basicPublish(exchange, routingKey, null, messageToSend.getBytes());
+    // The IDs of up to MAX_FREE_ROOMS rooms that are free for all of the range. Rooms without any reservation are found
+    // 64 at a time in the bits of the table, only the rooms between them have calendars to look at. Called without the
+    // lock of a room, the lock of every room is taken while its calendar is read.
+    private List<String> freeRoomsDuring(TimeRange timeRange) {
+        List<String> free = new ArrayList<>();
+        int index = 0;
+        while (index < rooms.size() && free.size() < MAX_FREE_ROOMS) {
+            int nextFree = rooms.nextFree(index);
+            int end = nextFree < 0 ? rooms.size() : nextFree;
+
+            for (; index < end && free.size() < MAX_FREE_ROOMS; index++) {
+                Room room = rooms.room(index);
+                synchronized (room.getLock()) {
+                    if (room.isFree(timeRange))
+                        free.add(room.getRoomIdText());
+                }
+            }
+
+            if (nextFree >= 0 && free.size() < MAX_FREE_ROOMS)
+                free.add(Ids.toText(rooms.idOf(nextFree)));
+            index = nextFree < 0 ? end : nextFree + 1;
+        }
+
+        return free;
+    }
+
+    private void scheduleHoldExpiry(Reservation reservation) {
+        if (reservation.getHoldExpiresAt() <= 0)
+            return;
+
+        long delay = Math.max(0, reservation.getHoldExpiresAt() - System.currentTimeMillis());
+        HashedWheelTimer.Timeout holdExpiry = HOLD_TIMER.newTimeout(() -> expireHold(reservation), delay, TimeUnit.MILLISECONDS);
+        holdExpiries.put(reservation.getReservationId(), holdExpiry);
+    }
+
+    // A confirmation or cancellation may name the time range of the reservation, it then has to be the same
+    private static boolean matchesTimeRange(Command request, Reservation reservation) {
+        return request.getTimeRange() == null || request.getTimeRange().equals(reservation.getTimeRange());
+    }
+
+    // The time range as it is sent to agents, null for bookings without one
+    private static TimeRange timeRangeOf(Reservation reservation) {
+        return reservation.getTimeRange().isAll() ? null : reservation.getTimeRange();
+    }
+
+    private static String forTime(TimeRange timeRange) {
+        return timeRange.isAll() ? "" : " for " + timeRange;
+    }
+
+    // Runs on the timer thread, with the same locks as a request for the room
+    private void expireHold(Reservation reservation) {
+        try {
+            inRoom(rooms.find(reservation.getRoomId()), () -> releaseHold(reservation));
+        } catch (IOException e) {
+            LOG.error("Releasing the expired reservation {} failed", Ids.toText(reservation.getReservationId()), e);
+        }
+    }
+
+    // Releases the room of a reservation that was not confirmed in time
+    private void releaseHold(Reservation reservation) throws IOException {
+        // the reservation may have been confirmed or cancelled while the timer was firing
+        if (reservationsById.get(reservation.getReservationId()) != reservation || reservation.isConfirmed())
+            return;
+
+        applyExpired(reservation);
+
+        String reservationID = Ids.toText(reservation.getReservationId());
+        String roomID = Ids.toText(reservation.getRoomId());
+
+        LOG.debug("Reservation with ID: {} for room: {} expired", reservationID, roomID);
+
+        commit(log -> log.expired(reservationID), () -> {
+            if (notifyExpiredHolds && reservation.getAgentId() != null) {
+                // unsolicited, so there is no correlation ID, the agent forwards it to the customer
+                transport.publish(BUILDING_AGENT_EXCHANGE, reservation.getAgentId(), CommandCodec.encode(new Command(RequestType.HOLD_EXPIRED)
+                        .setStatus(Status.EXPIRED)
+                        .setCustomerId(reservation.getCustomerId())
+                        .setBuildingId(buildingID)
+                        .setRoomId(roomID)
+                        .setReservationId(reservationID)
+                        .setText("reservation with ID: " + reservationID + " for room with ID: " + roomID + " expired before it was confirmed")));
+            }
+        });
+    }
+
+    // The state changes below are shared by the request handling and the replay of the durable state
+
+
+    private void applyReserved(Reservation reservation) {
+        reservationsById.put(reservation.getReservationId(), reservation);
+        rooms.find(reservation.getRoomId()).reserve(reservation);
+    }
+
+    private void applyConfirmed(Reservation reservation) {
+        // the reservation is kept so that the booking can be cancelled
+        rooms.find(reservation.getRoomId()).book(reservation);
+        HashedWheelTimer.Timeout holdExpiry = holdExpiries.remove(reservation.getReservationId());
+        if (holdExpiry != null)
+            holdExpiry.cancel();
+    }
+
+    private void applyCancelled(Reservation reservation) {
+        rooms.find(reservation.getRoomId()).cancelBooking(reservation);
+        reservationsById.remove(reservation.getReservationId());
+    }
+
+    private void applyExpired(Reservation reservation) {
+        reservationsById.remove(reservation.getReservationId());
+        holdExpiries.remove(reservation.getReservationId());
+        rooms.find(reservation.getRoomId()).releaseReservation(reservation);
+    }
+
+    // Writes the full state of the building, used for snapshots
+    private void writeState(BuildingStateStore.Visitor state) {
+        // the bookings of the rooms are restored from the reservations, except those of people the building does not know
+        for (int i = 0; i < rooms.size(); i++)
+            state.room(Ids.toText(rooms.idOf(i)), rooms.room(i).hasUnknownBooking());
+
+        for (Reservation reservation : reservationsById.values()) {
+            String reservationID = Ids.toText(reservation.getReservationId());
+            state.reserved(reservationID, Ids.toText(reservation.getRoomId()), reservation.getCustomerId(), reservation.getAgentId(),
+                    reservation.getHoldExpiresAt(), reservation.getTimeRange());
+            if (reservation.isConfirmed())
+                state.confirmed(reservationID);
+        }
+    }
+
+    // Something sent to an agent once the state it reports on is durable
+    private interface Reply {
+        void send() throws IOException;
+    }
+
+    // Something done while holding the locks of a room
+    private interface RoomTask {
+        void run() throws IOException;
+    }
+
+    // Runs the task with the read lock of the building and the lock of the room, without a room only the read lock is needed
+    private void inRoom(Room room, RoomTask task) throws IOException {
+        stateLock.readLock().lock();
+        try {
+            if (room == null) {
+                task.run();
+            } else {
+                synchronized (room.getLock()) {
+                    task.run();
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+
+        snapshotIfNeeded();
+    }
+
+    // Snapshots are written between requests, since no change may be made while the full state is written
+    private void snapshotIfNeeded() throws IOException {
+        if (stateStore == null || !stateStore.needsSnapshot())
+            return;
+
+        stateLock.writeLock().lock();
+        try {
+            if (stateStore.needsSnapshot())
+                stateStore.snapshot(this::writeState);
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+    }
+
+    // Logs a state change that was already applied in memory, the reply is only sent once the change is on disk.
+    // Changes are committed in groups, so one sync of the log covers all requests that arrived in the meantime.
+    private void commit(Consumer<BuildingStateStore.Visitor> change, Reply reply) throws IOException {
+        if (stateStore == null) {
+            reply.send();
+            return;
+        }
+
+        stateStore.append(change, () -> send(reply));
+    }
+
+    // Commits a change that the agents are told about, the reply is followed by the numbered delta of the room
+    private void commitRoomChange(Room room, Consumer<BuildingStateStore.Visitor> change, Reply reply) throws IOException {
+        Command delta = roomChanged(room);
+        commit(change, () -> {
+            reply.send();
+            sendBuildingDelta(delta);
+        });
+    }
+
+    private static void send(Reply reply) {
+        try {
+            reply.send();
+        } catch (IOException e) {
+            LOG.error("Sending a reply failed", e);
+        }
+    }
+
+    // Creates a response that repeats the identifiers of the request it answers, and counts the outcome of the request
+    private Command response(RequestType type, Status status, Command request) {
+        METRICS.count(request.getType(), status);
+
+        return new Command(type)
+                .setStatus(status)
+                .setCustomerId(request.getCustomerId())
+                .setBuildingId(buildingID)
+                .setRoomId(request.getRoomId())
+                .setReservationId(request.getReservationId())
+                .setTimeRange(request.getTimeRange());
+    }
+
+    // Sends a response to the agent that made the request, echoing the correlation ID of the request.
+    // With a durable state the response waits for the changes logged before it, since it may depend on them.
+    private void respond(MessageProperties requestProperties, String agentID, Command response) throws IOException {
+        if (stateStore == null)
+            publishResponse(requestProperties, agentID, response);
+        else
+            stateStore.whenDurable(() -> send(() -> publishResponse(requestProperties, agentID, response)));
+    }
+
+    private void publishResponse(MessageProperties requestProperties, String agentID, Command response) throws IOException {
+        String routingKey = requestProperties.getReplyTo() != null ? requestProperties.getReplyTo() : agentID;
+
+        transport.publish(BUILDING_AGENT_EXCHANGE, routingKey, new MessageProperties(requestProperties.getCorrelationId(), null, Tracing.next(requestProperties.getTrace())),
+                CommandCodec.encode(response));
     }
 
     public String getBuildingID() {
         return buildingID;
     }
 
+    @JsonProperty("rooms")
     public List<Room> getRooms() {
-        return rooms;
+        return rooms.asList();
     }
 
-    private boolean reservationsContainNotConfirmedBooking(String roomId) {
-        return reservations.stream().anyMatch(r -> r.getRoomId().equals(roomId) && rooms.stream().anyMatch(room -> room.getRoomId().equals(roomId) && !room.isBooked()));
+    // Applies the records of the durable state while the building is created
+    private class StateReplay implements BuildingStateStore.Visitor {
+        @Override
+        public void room(String roomId, boolean booked) {
+            int index = rooms.add(Ids.parse(roomId));
+            if (booked)
+                rooms.room(index).bookForUnknown();
+        }
+
+        @Override
+        public void reserved(String reservationId, String roomId, String customerId, String agentId, long holdExpiresAt, TimeRange timeRange) {
+            if (rooms.find(Ids.parse(roomId)) == null) {
+                LOG.warn("Skipped the reservation {} of unknown room {} while recovering building {}", reservationId, roomId, buildingID);
+                return;
+            }
+
+            Reservation reservation = new Reservation(Ids.parse(reservationId), customerId, Ids.parse(roomId), buildingID, agentId);
+            reservation.setHoldExpiresAt(holdExpiresAt);
+            reservation.setTimeRange(timeRange);
+            applyReserved(reservation);
+        }
+
+        @Override
+        public void confirmed(String reservationId) {
+            Reservation reservation = known(reservationId, "confirmation");
+            if (reservation != null)
+                applyConfirmed(reservation);
+        }
+
+        @Override
+        public void cancelled(String reservationId) {
+            Reservation reservation = known(reservationId, "cancellation");
+            if (reservation != null)
+                applyCancelled(reservation);
+        }
+
+        @Override
+        public void expired(String reservationId) {
+            Reservation reservation = known(reservationId, "expiry");
+            if (reservation != null)
+                applyExpired(reservation);
+        }
+
+        // A log written around a lost snapshot may name reservations the replay has not seen, they are skipped
+        private Reservation known(String reservationId, String change) {
+            Reservation reservation = reservationsById.get(Ids.parse(reservationId));
+            if (reservation == null)
+                LOG.warn("Skipped the {} of unknown reservation {} while recovering building {}", change, reservationId, buildingID);
+
+            return reservation;
+        }
     }
 
     @Override
     public String toString() {
-        return "Building{" +
-                "buildingID='" + buildingID + '\'' +
-                ", rooms=" + rooms +
-                '}';
+        StringBuilder builder = new StringBuilder(32 + rooms.size() * 40)
+                .append("Building{buildingID='").append(buildingID).append("', rooms=[");
+        rooms.appendTo(builder, System.currentTimeMillis());
+
+        return builder.append("]}").toString();
     }
 }
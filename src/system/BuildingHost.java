@@ -0,0 +1,133 @@
+package system;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import system.transport.Transport;
+import system.transport.Transports;
+import system.utils.Ids;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs many buildings in one process. The buildings share a few connections and consumer threads,
+// every building still has its own queue bound to the agent exchange with its ID as routing key.
+// Usage: BuildingHost [config file] or BuildingHost [buildings] [roomsPerBuilding]
+// Every line of the config file is "<buildingID> <roomCount>", lines starting with # are ignored.
+// With -Dconferencerent.building.dataDir the buildings of the config file recover their state on restart,
+// their write-ahead logs share the flusher threads of the process.
+public class BuildingHost {
+    private static final Logger LOG = LoggerFactory.getLogger(BuildingHost.class);
+    // -Dconferencerent.host.connections, number of connections the buildings are spread over
+    private static final String CONNECTIONS_PROPERTY = "conferencerent.host.connections";
+    // -Dconferencerent.host.consumerThreads, threads that handle the deliveries of all connections
+    private static final String CONSUMER_THREADS_PROPERTY = "conferencerent.host.consumerThreads";
+    // the write-ahead logs of the buildings are mapped 1 MB at a time rather than the 16 MB of a building of its own,
+    // a generation of the log rarely outgrows it before the next snapshot and many buildings map a lot less
+    private static final int WAL_CHUNK_SIZE = 1024 * 1024;
+
+    private final List<Transport> transports;
+    private final ExecutorService consumerThreads;
+    private final List<Building> buildings = new ArrayList<>();
+
+    public BuildingHost(int connections, int consumerThreadCount) throws IOException, TimeoutException {
+        AtomicInteger counter = new AtomicInteger();
+        this.consumerThreads = Executors.newFixedThreadPool(consumerThreadCount, runnable -> {
+            Thread thread = new Thread(runnable, "building-host-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.transports = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++)
+            transports.add(Transports.create(consumerThreads));
+    }
+
+    public static void main(String[] args) throws IOException, TimeoutException {
+        Map<String, Integer> config;
+        if (args.length == 1) {
+            config = readConfig(Path.of(args[0]));
+        } else if (args.length == 2) {
+            config = generateConfig(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        } else {
+            System.out.println("Usage: BuildingHost [config file] or BuildingHost [buildings] [roomsPerBuilding]");
+            return;
+        }
+
+        BuildingHost host = new BuildingHost(Integer.getInteger(CONNECTIONS_PROPERTY, 4),
+                Integer.getInteger(CONSUMER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        Runtime.getRuntime().addShutdownHook(new Thread(host::close));
+
+        host.start(config);
+    }
+
+    // Starts a building for every entry of buildingID -> roomCount
+    public void start(Map<String, Integer> config) throws IOException {
+        for (Map.Entry<String, Integer> entry : config.entrySet()) {
+            // the buildings are spread evenly over the connections
+            Transport transport = transports.get(buildings.size() % transports.size());
+            Building building = new Building(transport, entry.getKey(), entry.getValue(), WAL_CHUNK_SIZE);
+            building.start();
+            buildings.add(building);
+        }
+
+        LOG.info("Hosting {} buildings on {} connections", buildings.size(), transports.size());
+    }
+
+    public List<Building> getBuildings() {
+        return buildings;
+    }
+
+    public void close() {
+        // the buildings first, so that the replies to their last logged changes can still be sent
+        for (Building building : buildings) {
+            try {
+                building.close();
+            } catch (IOException e) {
+                LOG.error("Closing building {} failed", building.getBuildingID(), e);
+            }
+        }
+
+        for (Transport transport : transports) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                LOG.error("Closing a connection failed", e);
+            }
+        }
+        consumerThreads.shutdown();
+    }
+
+    static Map<String, Integer> readConfig(Path file) throws IOException {
+        Map<String, Integer> config = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 2)
+                throw new IllegalArgumentException("Expected <buildingID> <roomCount> but got: " + line);
+
+            config.put(fields[0], Integer.parseInt(fields[1]));
+        }
+
+        return config;
+    }
+
+    // Buildings with new, random IDs
+    static Map<String, Integer> generateConfig(int buildingCount, int roomsPerBuilding) {
+        Map<String, Integer> config = new LinkedHashMap<>();
+        while (config.size() < buildingCount)
+            config.put(Ids.nextText(), roomsPerBuilding);
+
+        return config;
+    }
+}
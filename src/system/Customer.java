@@ -1,191 +1,132 @@
 package system;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.sql.SQLOutput;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.Scanner;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.DeliverCallback;
+import system.client.BookingClient;
+import system.protocol.Command;
+import system.protocol.Status;
+import system.transport.Transport;
+import system.transport.Transports;
 import system.utils.Utility;
 import system.utils.RequestType;
+import system.utils.TimeRange;
 
+// Interactive menu for one customer, built on top of the BookingClient
 public class Customer {
-    ReentrantLock lock = new ReentrantLock();
-    private final Condition responseReceivedCondition = lock.newCondition();
-    private boolean receivedResponse = false;
-
-
-
     private final ObjectMapper mapper;
     private final Scanner scanner;
-    private Channel channel;
-    private Connection connection;
+    private final BookingClient client;
     private final String customerID;
-
-
-
-
-    private static final String AGENT_CUSTOMER_EXCHANGE = "agentCustExchange";
-    private static final String CUSTOMER_AGENT_EXCHANGE = "custAgentExchange";
-    private static final String CUSTOMER_AGENT_QUEUE = "custAgentQueue";
-
-    public Customer() {
+    // how the customer enters the start and end of a booking, in the local time zone
+    private static final String TIME_FORMAT = "yyyy-MM-ddTHH:mm";
+    // how many buildings are in one page of the streamed building list
+    private static final int LIST_PAGE_SIZE = 50;
+    // how many free rooms a search shows at most
+    private static final int SEARCH_LIMIT = 20;
+
+    public Customer(Transport transport) {
         this.mapper = new ObjectMapper();
         this.scanner = new Scanner(System.in);
-        this.customerID = UUID.randomUUID().toString().substring(0, 8);
+        this.client = new BookingClient(transport);
+        this.customerID = client.getCustomerID();
         System.out.println("Welcome to Conference Rent system, Customer "+customerID+" !" );
     }
 
     public static void main(String[] args) throws IOException, TimeoutException, InterruptedException {
-        Customer customer = new Customer();
+        Customer customer = new Customer(Transports.create());
         customer.start();
     }
 
-    public void start() throws IOException, TimeoutException, InterruptedException {
-        initRabbitMq();
-        startListeningForResponses();
+    public void start() throws IOException, InterruptedException {
+        client.setNotificationListener(notification -> {
+            System.out.println("Received notification from Agent:");
+            System.out.println(notification.getText());
+        });
+        client.connect();
         displayMenu();
     }
 
-
-    // Precondition: Agents have to be running first!!!
-    private void initRabbitMq() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        connection = factory.newConnection();
-        channel = connection.createChannel();
-
-        // Declare the direct exchange where all messages from the CUSTOMER ----> AGENT will be sent
-        channel.exchangeDeclare(CUSTOMER_AGENT_EXCHANGE, "direct");
-        // Declare a queue for the exchange to pour messages into
-        channel.queueDeclare(CUSTOMER_AGENT_QUEUE, false, false, false, null);
-        channel.queueBind(CUSTOMER_AGENT_QUEUE, CUSTOMER_AGENT_EXCHANGE, "");
-
-        // Declare a queue for each customer that will listen for responses from the agent
-        // Name consists of the customerID and the word "Queue"
-        channel.queueDeclare(customerID+"Queue", false, false, false, null);
-        // Bind the queue to the exchange, the routing key is the customerID
-        channel.queueBind(customerID+"Queue", AGENT_CUSTOMER_EXCHANGE, customerID);
-
+    // Waits for the response of the agent, returns null after telling the customer why there is none
+    private Command await(CompletableFuture<Command> pendingResponse) throws InterruptedException {
+        try {
+            return pendingResponse.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException)
+                System.out.println("No response from the agent, please try again later.");
+            else
+                System.out.println("The request could not be sent: " + e.getCause().getMessage());
+            return null;
+        }
     }
 
-    private void startListeningForResponses() throws IOException {
-        // Callback for receiving the list of buildings
-        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
-            String responseReceived = new String(delivery.getBody(), StandardCharsets.UTF_8);
-            String typeOfResponse = responseReceived.split(" ")[0];
-
-
-
-            switch (typeOfResponse) {
-                case "BUILDINGS_LIST": {
-                    // remove the type of response from the message
-                    responseReceived = responseReceived.substring(typeOfResponse.length() + 1);
-
-                    Utility.printBuildingList(responseReceived);  // Print the list of buildings
-                    break;
-                }
-                default: {
-                    System.out.println("Received message from Agent:");
-                    System.out.println(responseReceived);
-                    break;
-                }
-            }
-
-            // Signal the waiting thread that response has been received
-            lock.lock();
-            try {
-                receivedResponse = true;
-                responseReceivedCondition.signal();  // Wake up the thread waiting for the response
-            } finally {
-                lock.unlock();
-            }
-        };
-
-
-
-        // Listen on the customer's queue for responses from the agent
-        channel.basicConsume(customerID+"Queue", true, deliverCallback, consumerTag -> {});
+    // Waits for the response of the agent and prints it
+    private void awaitResponse(CompletableFuture<Command> pendingResponse) throws InterruptedException {
+        Command response = await(pendingResponse);
+        if (response == null)
+            return;
+
+        if (response.getType() == RequestType.BUILDINGS_LIST) {
+            Utility.printBuildingList(response.getText());  // Print the list of buildings
+        } else if (response.getType() == RequestType.AVAILABLE_ROOMS && response.getStatus() == Status.OK) {
+            if (response.getText().equals("[]"))
+                System.out.println("No rooms found.");
+            else
+                Utility.printBuildingList(response.getText());
+        } else {
+            System.out.println("Received message from Agent:");
+            System.out.println(response.getText());
+        }
+    }
 
+    private void requestListOfBuildings() throws InterruptedException {
+        // the list arrives in pages, each is printed as soon as it is received
+        CompletableFuture<Command> response = client.streamBuildingList(LIST_PAGE_SIZE, page -> Utility.printBuildingList(page.getText()));
+        System.out.println("[x] Sent by Customer  " + customerID + "  to request the building list.");
 
+        await(response);
     }
 
-    private void requestListOfBuildings() throws IOException, InterruptedException {
-
-        StringBuilder message = new StringBuilder();
-        message.append(RequestType.GET_BUILDINGS_LIST);
-        message.append(" ");
-        message.append(customerID);
-        String messageStr = message.toString();
+    private void searchFreeRooms(String buildingID) throws InterruptedException {
+        CompletableFuture<Command> response = client.searchAvailability(buildingID, true, SEARCH_LIMIT);
+        System.out.println("[x] Sent by Customer  " + customerID + "  to search for free rooms.");
 
-        // Publish the request to CUSTOMER_AGENT_EXCHANGE for the agent to pick up
-        // Routing key is "", a blank field
-        channel.basicPublish(CUSTOMER_AGENT_EXCHANGE, "", null, messageStr.getBytes());
-        receivedResponse = false;
-        System.out.println("[x] Sent by Customer  " + customerID + "  to request the building list.");
+        awaitResponse(response);
+    }
 
-        // Wait for the response
-        lock.lock();
-        try {
-            while (!receivedResponse) {
-                responseReceivedCondition.await();  // Wait until response is received
-            }
-        } finally {
-            lock.unlock();
-        }
+    private void findFreeTime(String buildingID, String roomID, TimeRange timeRange) throws InterruptedException {
+        CompletableFuture<Command> response = client.findFreeTime(buildingID, roomID, timeRange);
+        System.out.println("[x] Sent by Customer  " + customerID + "  to find free time.");
 
-        // Reset the flag for the next request
-        receivedResponse = false;
+        awaitResponse(response);
     }
 
-    private void makeBooking(String buildingID, String roomID) throws IOException, InterruptedException {
-        // Bind the queue to the exchange, the routing key is the customerID
-        channel.queueBind(customerID+"Queue", AGENT_CUSTOMER_EXCHANGE, customerID);
-
-        StringBuilder message = new StringBuilder();
-        message.append(RequestType.MAKE_BOOKING);
-        message.append(" ");
-        message.append(customerID);
-        message.append(" ");
-        message.append(buildingID);
-        message.append(" ");
-        message.append(roomID);
-        String messageStr = message.toString();
-
-        // Publish the request to CUSTOMER_AGENT_EXCHANGE for the agent to pick up
-        // Routing key is "", a blank field
-        channel.basicPublish(CUSTOMER_AGENT_EXCHANGE, "", null, messageStr.getBytes());
+    private void makeBooking(String buildingID, String roomID, TimeRange timeRange) throws InterruptedException {
+        CompletableFuture<Command> response = client.makeBooking(buildingID, roomID, timeRange);
         System.out.println("[x] Sent by Customer  " + customerID + "  to request the booking.");
 
-        // Wait for the response
-        lock.lock();
-        try {
-            while (!receivedResponse) {
-                responseReceivedCondition.await();  // Wait until response is received
-            }
-        } finally {
-            lock.unlock();
-        }
-
-        // Reset the flag for the next request
-        receivedResponse = false;
+        awaitResponse(response);
     }
 
 
 
+    private static TimeRange readTimeRange(String start, String end) {
+        ZoneId zone = ZoneId.systemDefault();
+        return TimeRange.of(LocalDateTime.parse(start).atZone(zone).toInstant(), LocalDateTime.parse(end).atZone(zone).toInstant());
+    }
+
     public void close() {
         try {
-            channel.close();
-            connection.close();
+            client.close();
             scanner.close();
-        } catch (IOException | TimeoutException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
@@ -196,17 +137,19 @@ public class Customer {
         System.out.println("2. Make booking.");
         System.out.println("3. Confirm booking.");
         System.out.println("4. Cancel booking.");
+        System.out.println("5. Search for free rooms.");
+        System.out.println("6. Find free time in a building.");
         System.out.println("0. Exit");
         System.out.print("Enter your choice: ");
     }
 
-    public void displayMenu() throws IOException, InterruptedException {
+    public void displayMenu() throws InterruptedException {
         int choice = -1;
         while (choice != 0) {
             printCustomerMenuOptions();
             if (scanner.hasNextInt()) {
                 choice = scanner.nextInt();
-                if (choice >= 0 && choice <= 4) {
+                if (choice >= 0 && choice <= 6) {
                     switch (choice) {
                         case 1 -> requestListOfBuildings();
                         case 2 -> {
@@ -214,7 +157,14 @@ public class Customer {
                             String buildingID = scanner.next();
                             System.out.println("Please select a room to book (Room ID): ");
                             String roomID = scanner.next();
-                            makeBooking(buildingID, roomID);
+                            System.out.println("Please enter the start and end of the booking (" + TIME_FORMAT + " " + TIME_FORMAT + "), or - to book the room for good: ");
+                            String start = scanner.next();
+                            try {
+                                TimeRange timeRange = start.equals("-") ? null : readTimeRange(start, scanner.next());
+                                makeBooking(buildingID, roomID, timeRange);
+                            } catch (DateTimeParseException | IllegalArgumentException e) {
+                                System.out.println("Invalid time range: " + e.getMessage());
+                            }
                         }
                         case 3 -> {
                             System.out.println("Please enter the reservation ID to confirm booking: ");
@@ -240,78 +190,50 @@ public class Customer {
 
                             cancelBooking(reservationID, buildingId, roomId);
                         }
+                        case 5 -> {
+                            System.out.println("Please enter the building ID to search in, or - to search all buildings: ");
+                            String buildingID = scanner.next();
+                            searchFreeRooms(buildingID.equals("-") ? null : buildingID);
+                        }
+                        case 6 -> {
+                            System.out.println("Please enter the building ID: ");
+                            String buildingID = scanner.next();
+                            System.out.println("Please enter a room ID for its free time, or - for the rooms free all of the time: ");
+                            String roomID = scanner.next();
+                            System.out.println("Please enter the start and end of the time (" + TIME_FORMAT + " " + TIME_FORMAT + "), or - for all time: ");
+                            String start = scanner.next();
+                            try {
+                                TimeRange timeRange = start.equals("-") ? null : readTimeRange(start, scanner.next());
+                                findFreeTime(buildingID, roomID.equals("-") ? null : roomID, timeRange);
+                            } catch (DateTimeParseException | IllegalArgumentException e) {
+                                System.out.println("Invalid time range: " + e.getMessage());
+                            }
+                        }
                         case 0 -> System.out.println("Goodbye!");
                     }
                 } else {
-                    System.out.println("Invalid choice. Please select option from the menu(0-4):");
+                    System.out.println("Invalid choice. Please select option from the menu(0-6):");
                 }
             } else {
-                System.out.println("Invalid input. Please enter a valid number(0-4):");
+                System.out.println("Invalid input. Please enter a valid number(0-6):");
                 scanner.next();
             }
         }
         close();
     }
 
-    private void cancelBooking(String reservationID, String buildingId, String roomId) throws IOException, InterruptedException {
-        StringBuilder message = new StringBuilder();
-
-        message.append(RequestType.CANCEL_BOOKING.toString());
-        message.append(" ");
-        message.append(this.customerID);
-        message.append(" ");
-        message.append(reservationID);
-        message.append(" ");
-        message.append(buildingId);
-        message.append(" ");
-        message.append(roomId);
-
-        channel.basicPublish(CUSTOMER_AGENT_EXCHANGE, "", null, message.toString().getBytes());
+    private void cancelBooking(String reservationID, String buildingId, String roomId) throws InterruptedException {
+        CompletableFuture<Command> response = client.cancelBooking(reservationID, buildingId, roomId);
         System.out.println("[x] Sent request by Customer  " + customerID + "  to cancel the booking.");
 
-        // Wait for the response
-        lock.lock();
-        try {
-            while (!receivedResponse) {
-                responseReceivedCondition.await();  // Wait until response is received
-            }
-        } finally {
-            lock.unlock();
-        }
-
-        // Reset the flag for the next request
-        receivedResponse = false;
+        awaitResponse(response);
     }
 
-    private void confirmBooking(String reservationID, String buildingId, String roomId) throws IOException, InterruptedException {
-        StringBuilder message = new StringBuilder();
-
-        message.append(RequestType.CONFIRM_BOOKING.toString());
-        message.append(" ");
-        message.append(this.customerID);
-        message.append(" ");
-        message.append(reservationID);
-        message.append(" ");
-        message.append(buildingId);
-        message.append(" ");
-        message.append(roomId);
-
-
-        channel.basicPublish(CUSTOMER_AGENT_EXCHANGE, "", null, message.toString().getBytes());
+    private void confirmBooking(String reservationID, String buildingId, String roomId) throws InterruptedException {
+        CompletableFuture<Command> response = client.confirmBooking(reservationID, buildingId, roomId);
         System.out.println("[x] Sent request by Customer  " + customerID + "  to confirm the booking.");
 
-        // Wait for the response
-        lock.lock();
-        try {
-            while (!receivedResponse) {
-                responseReceivedCondition.await();  // Wait until response is received
-            }
-        } finally {
-            lock.unlock();
-        }
-
-        // Reset the flag for the next request
-        receivedResponse = false;
+        awaitResponse(response);
     }
 
 
@@ -0,0 +1,30 @@
+package system;
+
+import system.transport.InMemoryBroker;
+import system.transport.InMemoryTransport;
+
+import java.io.IOException;
+
+// Runs agents, buildings and an interactive customer in one JVM without a RabbitMQ broker.
+// Usage: LocalDeployment [agents] [buildings]
+public class LocalDeployment {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int agentCount = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int buildingCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        InMemoryBroker broker = InMemoryBroker.getDefault();
+
+        // Agents have to be running before the buildings and customers declare their queues
+        for (int i = 0; i < agentCount; i++)
+            new Agent(new InMemoryTransport(broker)).startListening();
+
+        for (int i = 0; i < buildingCount; i++)
+            new Building(new InMemoryTransport(broker)).start();
+
+        new Customer(new InMemoryTransport(broker)).start();
+
+        // The customer menu has returned, stop the agents and buildings as well
+        System.exit(0);
+    }
+}
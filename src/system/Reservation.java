@@ -1,22 +1,38 @@
 package system;
 
+import system.utils.Ids;
+import system.utils.TimeRange;
+
 public class Reservation {
-    String reservationId;
+    // IDs made by Ids, Ids.NONE for a booking the building has no reservation for
+    long reservationId = Ids.NONE;
     String customerId;
-    String roomId;
+    long roomId = Ids.NONE;
     String buildingId;
+    // the agent that made the reservation on behalf of the customer
+    String agentId;
+    // epoch millisecond when an unconfirmed reservation stops holding the room, 0 if it never does
+    long holdExpiresAt;
+    // the part of the room's calendar the reservation takes
+    TimeRange timeRange = TimeRange.ALL;
+    boolean confirmed;
 
-    public Reservation(String reservationId, String customerId, String roomId, String buildingId) {
+    public Reservation(long reservationId, String customerId, long roomId, String buildingId) {
         this.reservationId = reservationId;
         this.customerId = customerId;
         this.roomId = roomId;
         this.buildingId = buildingId;
     }
 
+    public Reservation(long reservationId, String customerId, long roomId, String buildingId, String agentId) {
+        this(reservationId, customerId, roomId, buildingId);
+        this.agentId = agentId;
+    }
+
     public Reservation() {
     }
 
-    public String getReservationId() {
+    public long getReservationId() {
         return reservationId;
     }
 
@@ -24,7 +40,7 @@ public class Reservation {
         return customerId;
     }
 
-    public String getRoomId() {
+    public long getRoomId() {
         return roomId;
     }
 
@@ -32,7 +48,23 @@ public class Reservation {
         return buildingId;
     }
 
-    public void setReservationId(String reservationId) {
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public long getHoldExpiresAt() {
+        return holdExpiresAt;
+    }
+
+    public TimeRange getTimeRange() {
+        return timeRange;
+    }
+
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    public void setReservationId(long reservationId) {
         this.reservationId = reservationId;
     }
 
@@ -40,11 +72,27 @@ public class Reservation {
         this.customerId = customerId;
     }
 
-    public void setRoomId(String roomId) {
+    public void setRoomId(long roomId) {
         this.roomId = roomId;
     }
 
     public void setBuildingId(String buildingId) {
         this.buildingId = buildingId;
     }
+
+    public void setAgentId(String agentId) {
+        this.agentId = agentId;
+    }
+
+    public void setHoldExpiresAt(long holdExpiresAt) {
+        this.holdExpiresAt = holdExpiresAt;
+    }
+
+    public void setTimeRange(TimeRange timeRange) {
+        this.timeRange = timeRange;
+    }
+
+    public void setConfirmed(boolean confirmed) {
+        this.confirmed = confirmed;
+    }
 }
@@ -1,73 +1,136 @@
 package system;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import system.utils.Ids;
+import system.utils.TimeRange;
 
-import java.util.UUID;
-
+// A view of one room of a RoomTable. Views of the same room are equal and share the lock of the room.
 public class Room {
-    @JsonProperty("roomId")
-    private final String roomId;
-    @JsonProperty("isBooked")
-    private boolean isBooked;
-    private boolean isPending;
-    private String reservationId;
+    private final RoomTable table;
+    private final int index;
 
+    Room(RoomTable table, int index) {
+        this.table = table;
+        this.index = index;
+    }
 
     public Room(@JsonProperty("roomId") String roomId, @JsonProperty("isBooked") boolean isBooked) {
-        this.roomId = roomId;
-        this.isBooked = isBooked;
-        this.isPending = false;
+        this(Ids.parse(roomId), isBooked);
     }
-    public Room() {
-        this.roomId = UUID.randomUUID().toString().substring(0, 8);
-        this.isBooked = false;
-        isPending = false;
+
+    // A room of its own, outside of a building
+    public Room(long roomId, boolean isBooked) {
+        this.table = new RoomTable(1);
+        this.index = table.add(roomId);
+        if (isBooked)
+            bookForUnknown();
+    }
+
+    // Books the room for all time for someone the building has no reservation for
+    void bookForUnknown() {
+        Reservation booking = new Reservation(Ids.NONE, null, getRoomId(), null);
+        booking.setConfirmed(true);
+        reserve(booking);
     }
 
+    // Whether the room is booked for someone the building has no reservation for
+    boolean hasUnknownBooking() {
+        RoomCalendar calendar = table.calendarOf(index);
+        if (calendar == null)
+            return false;
+
+        for (Reservation reservation : calendar.getReservations()) {
+            if (reservation.getReservationId() == Ids.NONE)
+                return true;
+        }
+
+        return false;
+    }
+
+    // Whether an unconfirmed reservation holds the room right now
     public boolean isPending() {
-        return isPending;
+        return table.isHeldAt(index, System.currentTimeMillis());
     }
 
-    public String getReservationId() {
-        return reservationId;
+    public void reserve(Reservation reservation) {
+        table.calendarFor(index).add(reservation);
+        table.update(index);
     }
 
-    public void setReservationId(String reservationId) {
-        this.reservationId = reservationId;
+    // Frees the room from a reservation that was not confirmed
+    public void releaseReservation(Reservation reservation) {
+        RoomCalendar calendar = table.calendarOf(index);
+        if (calendar != null) {
+            calendar.remove(reservation);
+            table.update(index);
+        }
     }
 
-    public void reserve() {
-        isPending = true;
+    public long getRoomId() {
+        return table.idOf(index);
     }
 
-    public String getRoomId() {
-        return roomId;
+    // The ID as it is sent to agents
+    @JsonProperty("roomId")
+    public String getRoomIdText() {
+        return Ids.toText(getRoomId());
     }
 
-    public boolean isBooked() {
-        return isBooked;
+    // The reservations of the room, an empty calendar that is not kept if the room has none
+    public RoomCalendar getCalendar() {
+        RoomCalendar calendar = table.calendarOf(index);
+        return calendar != null ? calendar : new RoomCalendar();
     }
 
-    public void book() {
-        if (isBooked)
-            throw new IllegalStateException("Room is already booked");
+    // The reservation that overlaps the range, null if the room is free for all of it
+    public Reservation findOverlap(TimeRange range) {
+        RoomCalendar calendar = table.calendarOf(index);
+        return calendar == null ? null : calendar.findOverlap(range);
+    }
+
+    public boolean isFree(TimeRange range) {
+        return findOverlap(range) == null;
+    }
+
+    // Whether the room is booked right now
+    @JsonProperty("isBooked")
+    public boolean isBooked() {
+        return table.isBookedAt(index, System.currentTimeMillis());
+    }
 
-        isBooked = true;
+    public void book(Reservation reservation) {
+        table.calendarFor(index).confirm(reservation);
+        table.update(index);
     }
 
 
-    public void cancelBooking() {
-        if (!isBooked)
+    public void cancelBooking(Reservation reservation) {
+        if (!reservation.isConfirmed())
             throw new IllegalStateException("Room is not booked");
 
-        isBooked = false;
+        releaseReservation(reservation);
+    }
+
+    // Requests for the room hold this lock while they look at or change it
+    Object getLock() {
+        return table.lockOf(index);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Room room && room.table == table && room.index == index;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getRoomId());
     }
 
     @Override
     public String toString() {
         return "Room{" +
-                "roomId='" + roomId + '\'' +
-                ", isBooked=" + isBooked +
+                "roomId='" + getRoomIdText() + '\'' +
+                ", isBooked=" + isBooked() +
                 '}';
     }
 
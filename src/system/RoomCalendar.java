@@ -0,0 +1,103 @@
+package system;
+
+import system.utils.Ids;
+import system.utils.TimeRange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// The reservations of one room, ordered by start time.
+// Reservations never overlap, so their ends are ordered as well and the only reservation that can overlap a range
+// is the last one starting before the range ends. That makes the overlap check a single O(log n) lookup.
+public class RoomCalendar {
+    private final TreeMap<Long, Reservation> reservationsByStart = new TreeMap<>();
+    // reservations of the calendar that are confirmed, the others hold the room until they are confirmed or expire
+    private int confirmed;
+
+    // The reservation that overlaps the range, null if the room is free for all of it
+    public Reservation findOverlap(TimeRange range) {
+        Map.Entry<Long, Reservation> candidate = reservationsByStart.lowerEntry(range.getEnd());
+        if (candidate == null || candidate.getValue().getTimeRange().getEnd() <= range.getStart())
+            return null;
+
+        return candidate.getValue();
+    }
+
+    public boolean isFree(TimeRange range) {
+        return findOverlap(range) == null;
+    }
+
+    // The reservation covering the given moment, null if there is none
+    public Reservation findAt(long time) {
+        Map.Entry<Long, Reservation> candidate = reservationsByStart.floorEntry(time);
+        if (candidate == null || !candidate.getValue().getTimeRange().contains(time))
+            return null;
+
+        return candidate.getValue();
+    }
+
+    public void add(Reservation reservation) {
+        if (!isFree(reservation.getTimeRange()))
+            throw new IllegalStateException("Reservation " + Ids.toText(reservation.getReservationId()) + " overlaps another reservation");
+
+        reservationsByStart.put(reservation.getTimeRange().getStart(), reservation);
+        if (reservation.isConfirmed())
+            confirmed++;
+    }
+
+    public void remove(Reservation reservation) {
+        if (reservationsByStart.remove(reservation.getTimeRange().getStart(), reservation) && reservation.isConfirmed())
+            confirmed--;
+    }
+
+    // Confirms a reservation of the calendar
+    public void confirm(Reservation reservation) {
+        if (reservation.isConfirmed())
+            throw new IllegalStateException("Room is already booked");
+
+        reservation.setConfirmed(true);
+        confirmed++;
+    }
+
+    // The free parts of the range, in O(log n + k) for k reservations inside it
+    public List<TimeRange> freeRanges(TimeRange range) {
+        List<TimeRange> free = new ArrayList<>();
+        long freeFrom = range.getStart();
+
+        // a reservation starting before the range may still reach into it
+        Map.Entry<Long, Reservation> first = reservationsByStart.lowerEntry(range.getStart());
+        if (first != null)
+            freeFrom = Math.max(freeFrom, first.getValue().getTimeRange().getEnd());
+
+        for (Reservation reservation : reservationsByStart.subMap(range.getStart(), true, range.getEnd(), false).values()) {
+            TimeRange taken = reservation.getTimeRange();
+            if (taken.getStart() > freeFrom)
+                free.add(new TimeRange(freeFrom, taken.getStart()));
+            freeFrom = Math.max(freeFrom, taken.getEnd());
+        }
+
+        if (freeFrom < range.getEnd())
+            free.add(new TimeRange(freeFrom, range.getEnd()));
+
+        return free;
+    }
+
+    public Collection<Reservation> getReservations() {
+        return reservationsByStart.values();
+    }
+
+    public int size() {
+        return reservationsByStart.size();
+    }
+
+    public boolean hasConfirmed() {
+        return confirmed > 0;
+    }
+
+    public boolean hasUnconfirmed() {
+        return confirmed < reservationsByStart.size();
+    }
+}
@@ -0,0 +1,263 @@
+package system;
+
+import system.utils.ConcurrentLongMap;
+import system.utils.Ids;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The rooms of a building stored column-wise, so that a building with hundreds of thousands of rooms needs about
+// 16 bytes for a room nobody has reserved: its ID, a slot of the ID index and two bits. Only rooms with reservations
+// have a RoomCalendar. Room objects are views of a row, made when they are asked for.
+//
+// Rooms are added while the building is created, afterwards the table is only read by several threads at once.
+// The calendar of a room is changed while holding the lock of the room, the bits of all rooms are updated atomically.
+class RoomTable {
+    private static final int MAX_LOCKS = 256;
+
+    // index -> room ID
+    private long[] ids;
+    // open addressing index of the IDs: slot -> index + 1, 0 for a free slot
+    private int[] slots;
+    private int size;
+    // one bit per room: whether it has a reservation that is not confirmed, and whether it has a confirmed one
+    private AtomicLongArray held;
+    private AtomicLongArray booked;
+    // index -> calendar, only for rooms with reservations
+    private final ConcurrentLongMap<RoomCalendar> calendars = new ConcurrentLongMap<>();
+    // rooms share a lock when their index is the same modulo the number of locks
+    private final Object[] locks;
+
+    RoomTable(int expectedRooms) {
+        int capacity = Math.max(1, expectedRooms);
+        this.ids = new long[capacity];
+        this.slots = new int[slotCountFor(capacity)];
+        this.held = new AtomicLongArray(wordsFor(capacity));
+        this.booked = new AtomicLongArray(wordsFor(capacity));
+        this.locks = new Object[Math.min(MAX_LOCKS, Integer.highestOneBit(capacity * 2 - 1))];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    private static int wordsFor(int rooms) {
+        return (rooms + 63) >>> 6;
+    }
+
+    // a power of two with at least twice as many slots as rooms
+    private static int slotCountFor(int rooms) {
+        return Integer.highestOneBit(Math.max(2, rooms) * 4 - 1);
+    }
+
+    private static int slotOf(long id, int slotCount) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(slotCount)));
+    }
+
+    // Adds a room without reservations and returns its index
+    int add(long id) {
+        if (indexOf(id) >= 0)
+            throw new IllegalArgumentException("Room " + Ids.toText(id) + " is already in the table");
+        if (size == ids.length)
+            grow();
+
+        int index = size++;
+        ids[index] = id;
+        insertSlot(slots, id, index);
+
+        return index;
+    }
+
+    private static void insertSlot(int[] slots, long id, int index) {
+        int mask = slots.length - 1;
+        int slot = slotOf(id, slots.length);
+        while (slots[slot] != 0)
+            slot = (slot + 1) & mask;
+        slots[slot] = index + 1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        held = copyOf(held, wordsFor(capacity));
+        booked = copyOf(booked, wordsFor(capacity));
+
+        slots = new int[slotCountFor(capacity)];
+        for (int i = 0; i < size; i++)
+            insertSlot(slots, ids[i], i);
+    }
+
+    private static AtomicLongArray copyOf(AtomicLongArray words, int length) {
+        AtomicLongArray copy = new AtomicLongArray(length);
+        for (int i = 0; i < words.length(); i++)
+            copy.set(i, words.get(i));
+
+        return copy;
+    }
+
+    // The index of the room, -1 if the building has no room with the ID
+    int indexOf(long id) {
+        int mask = slots.length - 1;
+        for (int slot = slotOf(id, slots.length); slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (ids[index] == id)
+                return index;
+        }
+
+        return -1;
+    }
+
+    // The room with the ID, null if there is none
+    Room find(long id) {
+        int index = indexOf(id);
+        return index < 0 ? null : new Room(this, index);
+    }
+
+    Room room(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException(index);
+
+        return new Room(this, index);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long idOf(int index) {
+        return ids[index];
+    }
+
+    Object lockOf(int index) {
+        return locks[index & (locks.length - 1)];
+    }
+
+    // The calendar of the room, null if it has no reservations
+    RoomCalendar calendarOf(int index) {
+        return calendars.get(index);
+    }
+
+    // The calendar of the room, created for a room without reservations. Call update() after changing it.
+    RoomCalendar calendarFor(int index) {
+        RoomCalendar calendar = calendars.get(index);
+        if (calendar == null) {
+            calendar = new RoomCalendar();
+            calendars.put(index, calendar);
+        }
+
+        return calendar;
+    }
+
+    // Brings the bits of the room up to date with its calendar, and drops the calendar once it is empty
+    void update(int index) {
+        RoomCalendar calendar = calendars.get(index);
+        if (calendar != null && calendar.size() == 0) {
+            calendars.remove(index);
+            calendar = null;
+        }
+
+        setBit(held, index, calendar != null && calendar.hasUnconfirmed());
+        setBit(booked, index, calendar != null && calendar.hasConfirmed());
+    }
+
+    private static void setBit(AtomicLongArray words, int index, boolean value) {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        long current;
+        do {
+            current = words.get(word);
+            if (((current & bit) != 0) == value)
+                return;
+        } while (!words.compareAndSet(word, current, current ^ bit));
+    }
+
+    boolean isHeld(int index) {
+        return (held.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    boolean isBooked(int index) {
+        return (booked.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    // the rooms of the word that have a reservation, held or booked
+    private long takenWord(int word) {
+        return held.get(word) | booked.get(word);
+    }
+
+    // Number of rooms without any reservation, which are free at any time
+    int freeCount() {
+        int free = 0;
+        int words = wordsFor(size);
+        for (int word = 0; word < words; word++)
+            free += Long.bitCount(~takenWord(word) & validBits(word));
+
+        return free;
+    }
+
+    // The index of the first room from the given index on without any reservation, -1 if there is none
+    int nextFree(int from) {
+        if (from < 0 || from >= size)
+            return -1;
+
+        int words = wordsFor(size);
+        int word = from >>> 6;
+        long free = ~takenWord(word) & validBits(word) & (-1L << from);
+        while (free == 0) {
+            if (++word == words)
+                return -1;
+            free = ~takenWord(word) & validBits(word);
+        }
+
+        return (word << 6) + Long.numberOfTrailingZeros(free);
+    }
+
+    // the bits of the word that stand for rooms of the table
+    private long validBits(int word) {
+        int roomsInWord = size - (word << 6);
+        return roomsInWord >= 64 ? -1L : (1L << roomsInWord) - 1;
+    }
+
+    // Room{roomId='id', isBooked=false}, ... for all rooms, without making their views
+    void appendTo(StringBuilder builder, long now) {
+        for (int index = 0; index < size; index++) {
+            if (index > 0)
+                builder.append(", ");
+            builder.append("Room{roomId='").append(Ids.toText(ids[index])).append("', isBooked=").append(isBookedAt(index, now)).append('}');
+        }
+    }
+
+    // Whether a confirmed reservation covers the moment, rooms without confirmed reservations are not looked up
+    boolean isBookedAt(int index, long time) {
+        if (!isBooked(index))
+            return false;
+
+        RoomCalendar calendar = calendars.get(index);
+        Reservation reservation = calendar == null ? null : calendar.findAt(time);
+        return reservation != null && reservation.isConfirmed();
+    }
+
+    // Whether an unconfirmed reservation covers the moment
+    boolean isHeldAt(int index, long time) {
+        if (!isHeld(index))
+            return false;
+
+        RoomCalendar calendar = calendars.get(index);
+        Reservation reservation = calendar == null ? null : calendar.findAt(time);
+        return reservation != null && !reservation.isConfirmed();
+    }
+
+    // The rooms as a list of views
+    List<Room> asList() {
+        return new AbstractList<>() {
+            @Override
+            public Room get(int index) {
+                return room(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,240 @@
+package system.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import system.protocol.Command;
+import system.protocol.CommandCodec;
+import system.protocol.LegacyFormat;
+import system.registry.AvailabilityQuery;
+import system.registry.BuildingListQuery;
+import system.registry.BuildingSnapshot;
+import system.transport.ExchangeType;
+import system.transport.MessageProperties;
+import system.transport.Transport;
+import system.tracing.TraceContext;
+import system.tracing.Tracing;
+import system.utils.Ids;
+import system.utils.RequestType;
+import system.utils.TimeRange;
+import system.utils.Utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Programmatic access to the booking system for one customer.
+// Every request returns a future that is completed with the agent's response, or with a
+// java.util.concurrent.TimeoutException, so any number of requests can be in flight over one transport.
+// Futures are completed on the transport's consumer thread, dependent stages should not block.
+public class BookingClient implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(BookingClient.class);
+    private static final String AGENT_CUSTOMER_EXCHANGE = "agentCustExchange";
+    private static final String CUSTOMER_AGENT_EXCHANGE = "custAgentExchange";
+    private static final String CUSTOMER_AGENT_QUEUE = "custAgentQueue";
+
+    // -Dconferencerent.client.timeoutMs, how long to wait for a response by default
+    private static final String TIMEOUT_PROPERTY = "conferencerent.client.timeoutMs";
+
+    private final Transport transport;
+    private final String customerID;
+    private final long timeoutMillis;
+    private final ConcurrentHashMap<String, CompletableFuture<Command>> pendingRequests = new ConcurrentHashMap<>();
+    // listeners of streamed building lists, keyed by the correlation ID of the request
+    private final ConcurrentHashMap<String, Consumer<Command>> pageListeners = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    // receives the messages that do not answer a request, such as HOLD_EXPIRED
+    private volatile Consumer<Command> notificationListener = notification -> {};
+
+    public BookingClient(Transport transport) {
+        this(transport, Ids.nextText(), Long.getLong(TIMEOUT_PROPERTY, 30_000));
+    }
+
+    public BookingClient(Transport transport, String customerID, long timeoutMillis) {
+        this.transport = transport;
+        this.customerID = customerID;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    // Precondition: Agents have to be running first!!!
+    public void connect() throws IOException {
+        // Declare the direct exchange where all messages from the CUSTOMER ----> AGENT will be sent
+        transport.exchangeDeclare(CUSTOMER_AGENT_EXCHANGE, ExchangeType.DIRECT);
+        // Declare a queue for the exchange to pour messages into
+        transport.queueDeclare(CUSTOMER_AGENT_QUEUE);
+        transport.queueBind(CUSTOMER_AGENT_QUEUE, CUSTOMER_AGENT_EXCHANGE, "");
+
+        // Declare a queue for each customer that will listen for responses from the agent
+        // Name consists of the customerID and the word "Queue"
+        transport.queueDeclare(customerID + "Queue");
+        // Bind the queue to the exchange, the routing key is the customerID
+        transport.queueBind(customerID + "Queue", AGENT_CUSTOMER_EXCHANGE, customerID);
+
+        transport.consume(customerID + "Queue", (properties, body) -> handleResponse(properties, CommandCodec.decode(body, LegacyFormat.CUSTOMER_RESPONSE)));
+    }
+
+    public String getCustomerID() {
+        return customerID;
+    }
+
+    public void setNotificationListener(Consumer<Command> notificationListener) {
+        this.notificationListener = notificationListener;
+    }
+
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
+    }
+
+    public CompletableFuture<Command> requestListOfBuildings() {
+        return send(new Command(RequestType.GET_BUILDINGS_LIST));
+    }
+
+    // One page of up to limit buildings after the cursor, null starts at the first building.
+    // The response is a BUILDINGS_LIST_PAGE if more buildings follow, see nextCursor, or the BUILDINGS_LIST of the last page.
+    public CompletableFuture<Command> requestBuildingsPage(String cursor, int limit) {
+        return send(new Command(RequestType.GET_BUILDINGS_LIST)
+                .setText(new BuildingListQuery(cursor, limit, false).toText()));
+    }
+
+    // Streams the building list in pages of up to pageSize buildings, each page is handed to the listener as it arrives.
+    // The future completes with the last page, which the listener receives as well.
+    public CompletableFuture<Command> streamBuildingList(int pageSize, Consumer<Command> pageListener) {
+        return send(new Command(RequestType.GET_BUILDINGS_LIST)
+                .setText(new BuildingListQuery(null, pageSize, true).toText()), timeoutMillis, pageListener);
+    }
+
+    // The cursor of the page after the given one, null if it was the last page
+    public static String nextCursor(Command page) {
+        if (page.getType() != RequestType.BUILDINGS_LIST_PAGE)
+            return null;
+
+        List<BuildingSnapshot> buildings = Utility.parseBuildingList(page.getText());
+        return buildings.get(buildings.size() - 1).getBuildingId();
+    }
+
+    // Rooms known to the agent, in one building or in all of them if the building ID is null
+    public CompletableFuture<Command> searchAvailability(String buildingID, boolean freeOnly, int limit) {
+        return send(new Command(RequestType.AVAILABILITY_SEARCH)
+                .setBuildingId(buildingID)
+                .setText(new AvailabilityQuery(buildingID, freeOnly, limit).toText()));
+    }
+
+    // The free parts of the time range in the room, or the rooms of the building free for all of it if the room ID is null.
+    // Without a time range all of time is looked at.
+    public CompletableFuture<Command> findFreeTime(String buildingID, String roomID, TimeRange timeRange) {
+        return send(new Command(RequestType.FREE_TIME_QUERY)
+                .setBuildingId(buildingID)
+                .setRoomId(roomID)
+                .setTimeRange(timeRange));
+    }
+
+    public CompletableFuture<Command> makeBooking(String buildingID, String roomID) {
+        return makeBooking(buildingID, roomID, null);
+    }
+
+    // Books the room for the time range, or for all time if it is null
+    public CompletableFuture<Command> makeBooking(String buildingID, String roomID, TimeRange timeRange) {
+        return send(new Command(RequestType.MAKE_BOOKING)
+                .setBuildingId(buildingID)
+                .setRoomId(roomID)
+                .setTimeRange(timeRange));
+    }
+
+    public CompletableFuture<Command> confirmBooking(String reservationID, String buildingID, String roomID) {
+        return confirmBooking(reservationID, buildingID, roomID, null);
+    }
+
+    // The building rejects the confirmation if the time range is set and differs from the one of the reservation
+    public CompletableFuture<Command> confirmBooking(String reservationID, String buildingID, String roomID, TimeRange timeRange) {
+        return send(new Command(RequestType.CONFIRM_BOOKING)
+                .setReservationId(reservationID)
+                .setBuildingId(buildingID)
+                .setRoomId(roomID)
+                .setTimeRange(timeRange));
+    }
+
+    public CompletableFuture<Command> cancelBooking(String reservationID, String buildingID, String roomID) {
+        return cancelBooking(reservationID, buildingID, roomID, null);
+    }
+
+    public CompletableFuture<Command> cancelBooking(String reservationID, String buildingID, String roomID, TimeRange timeRange) {
+        return send(new Command(RequestType.CANCEL_BOOKING)
+                .setReservationId(reservationID)
+                .setBuildingId(buildingID)
+                .setRoomId(roomID)
+                .setTimeRange(timeRange));
+    }
+
+    public CompletableFuture<Command> send(Command request) {
+        return send(request, timeoutMillis);
+    }
+
+    // Publishes the request on behalf of this customer and returns the future of its response
+    public CompletableFuture<Command> send(Command request, long timeoutMillis) {
+        return send(request, timeoutMillis, null);
+    }
+
+    private CompletableFuture<Command> send(Command request, long timeoutMillis, Consumer<Command> pageListener) {
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet(), 36);
+        CompletableFuture<Command> response = new CompletableFuture<>();
+        pendingRequests.put(correlationId, response);
+        if (pageListener != null)
+            pageListeners.put(correlationId, pageListener);
+
+        // whatever completes the future, a response, a timeout or a failed publish, forgets the request
+        response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> {
+                    pendingRequests.remove(correlationId);
+                    pageListeners.remove(correlationId);
+                });
+
+        // the trace of the request ends when its response arrives
+        TraceContext trace = Tracing.startTrace();
+        if (trace != null)
+            response.thenRun(() -> Tracing.span(trace, "customer.round_trip", trace.getSentAtMicros(), Tracing.nowMicros()));
+
+        try {
+            // Routing key is "", a blank field
+            transport.publish(CUSTOMER_AGENT_EXCHANGE, "", new MessageProperties(correlationId, customerID, trace), CommandCodec.encode(request.setCustomerId(customerID)));
+        } catch (IOException e) {
+            response.completeExceptionally(e);
+        }
+
+        return response;
+    }
+
+    private void handleResponse(MessageProperties properties, Command response) {
+        Tracing.received(properties.getTrace(), "agent_to_customer.queue");
+
+        if (response.getType() == RequestType.HOLD_EXPIRED) {
+            notificationListener.accept(response);
+            return;
+        }
+
+        CompletableFuture<Command> pendingRequest = properties.getCorrelationId() == null ? null : pendingRequests.get(properties.getCorrelationId());
+
+        if (pendingRequest == null) {
+            // a late response to a request that has timed out, or one from an agent without correlation IDs
+            LOG.warn("Dropped a response without a pending request: {}", response.getText());
+            return;
+        }
+
+        // the pages of a streamed list share the correlation ID, only the last one completes the request
+        Consumer<Command> pageListener = pageListeners.get(properties.getCorrelationId());
+        if (pageListener != null)
+            pageListener.accept(response);
+        if (response.getType() == RequestType.BUILDINGS_LIST_PAGE && pageListener != null)
+            return;
+
+        pendingRequest.complete(response);
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+}
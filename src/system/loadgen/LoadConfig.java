@@ -0,0 +1,92 @@
+package system.loadgen;
+
+import system.utils.RequestType;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// Options of a load test, given as --name=value arguments
+public class LoadConfig {
+    // number of simulated customers, each one sends its requests one after the other
+    int customers = 100;
+    // requests per second over all customers, 0 sends as fast as responses arrive
+    double rate = 1000;
+    int durationSeconds = 30;
+    // requests sent during the warmup are not part of the report
+    int warmupSeconds = 5;
+    // memory starts agents and buildings inside this JVM, amqp expects them to be running already
+    String transport = "memory";
+    int agents = 1;
+    int buildings = 10;
+    long timeoutMillis = 5_000;
+    // file the machine-readable report is written to, none if null
+    String jsonReport;
+    // relative weight of every request type
+    final Map<RequestType, Integer> mix = new EnumMap<>(RequestType.class);
+
+    LoadConfig() {
+        mix.put(RequestType.GET_BUILDINGS_LIST, 10);
+        mix.put(RequestType.MAKE_BOOKING, 40);
+        mix.put(RequestType.CONFIRM_BOOKING, 30);
+        mix.put(RequestType.CANCEL_BOOKING, 20);
+    }
+
+    static LoadConfig parse(String[] args) {
+        LoadConfig config = new LoadConfig();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+
+            switch (name) {
+                case "customers" -> config.customers = Integer.parseInt(value);
+                case "rate" -> config.rate = Double.parseDouble(value);
+                case "duration" -> config.durationSeconds = Integer.parseInt(value);
+                case "warmup" -> config.warmupSeconds = Integer.parseInt(value);
+                case "transport" -> config.transport = value;
+                case "agents" -> config.agents = Integer.parseInt(value);
+                case "buildings" -> config.buildings = Integer.parseInt(value);
+                case "timeout" -> config.timeoutMillis = Long.parseLong(value);
+                case "json" -> config.jsonReport = value;
+                case "mix" -> config.parseMix(value);
+                default -> throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        return config;
+    }
+
+    // list:10,make:40,confirm:30,cancel:20, search is left out unless named
+    private void parseMix(String value) {
+        mix.clear();
+
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":");
+            RequestType type = switch (parts[0]) {
+                case "list" -> RequestType.GET_BUILDINGS_LIST;
+                case "make" -> RequestType.MAKE_BOOKING;
+                case "confirm" -> RequestType.CONFIRM_BOOKING;
+                case "cancel" -> RequestType.CANCEL_BOOKING;
+                case "search" -> RequestType.AVAILABILITY_SEARCH;
+                default -> throw new IllegalArgumentException("Unknown request in mix: " + parts[0]);
+            };
+            mix.put(type, Integer.parseInt(parts[1]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "customers=" + customers +
+                ", rate=" + rate +
+                ", duration=" + durationSeconds + "s" +
+                ", warmup=" + warmupSeconds + "s" +
+                ", transport=" + transport +
+                ", agents=" + agents +
+                ", buildings=" + buildings +
+                ", timeout=" + timeoutMillis + "ms" +
+                ", mix=" + mix;
+    }
+}
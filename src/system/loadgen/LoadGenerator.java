@@ -0,0 +1,194 @@
+package system.loadgen;
+
+import system.Agent;
+import system.Building;
+import system.client.BookingClient;
+import system.protocol.Command;
+import system.protocol.Status;
+import system.registry.AvailabilityQuery;
+import system.registry.BuildingSnapshot;
+import system.transport.AmqpTransport;
+import system.transport.InMemoryBroker;
+import system.transport.InMemoryTransport;
+import system.transport.Transport;
+import system.utils.RequestType;
+import system.utils.Threads;
+import system.utils.Utility;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load test of the booking flow, every simulated customer runs on its own (virtual) thread.
+// Usage: LoadGenerator [--customers=100] [--rate=1000] [--duration=30] [--warmup=5] [--transport=memory|amqp]
+//                      [--agents=1] [--buildings=10] [--timeout=5000] [--mix=list:10,make:40,confirm:30,cancel:20]
+//                      [--json=report.json]
+// Latency is measured from the time a request was scheduled to be sent, so a slow system is not hidden
+// by customers that fall behind their schedule.
+public class LoadGenerator {
+    private final LoadConfig config;
+    private final LoadReport report = new LoadReport();
+    private final RequestType[] weightedMix;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+
+        List<RequestType> mix = new ArrayList<>();
+        for (Map.Entry<RequestType, Integer> entry : config.mix.entrySet())
+            for (int i = 0; i < entry.getValue(); i++)
+                mix.add(entry.getKey());
+        this.weightedMix = mix.toArray(new RequestType[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.parse(args);
+        System.out.println("Load test with " + config + (Threads.supportsVirtualThreads() ? " on virtual threads" : " on platform threads"));
+
+        LoadGenerator generator = new LoadGenerator(config);
+        LoadReport report = generator.run();
+
+        System.out.println(report.toText());
+        if (config.jsonReport != null)
+            Files.writeString(Path.of(config.jsonReport), report.toJson() + System.lineSeparator(), StandardCharsets.UTF_8);
+
+        // the agents and buildings of an in-memory run keep the JVM alive otherwise
+        System.exit(0);
+    }
+
+    public LoadReport run() throws IOException, InterruptedException, TimeoutException {
+        Transport customerTransport = connect();
+
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+
+        ExecutorService executor = Threads.newThreadPerTaskExecutor("customer");
+        for (int i = 0; i < config.customers; i++) {
+            BookingClient client = new BookingClient(customerTransport, "load" + i, config.timeoutMillis);
+            client.connect();
+            executor.execute(new SimulatedCustomer(client, start, warmupEnd, end));
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(end - start + TimeUnit.MILLISECONDS.toNanos(config.timeoutMillis) * 2, TimeUnit.NANOSECONDS);
+        report.setMeasuredNanos(end - warmupEnd);
+
+        customerTransport.close();
+        return report;
+    }
+
+    // Starts the agents and buildings of an in-memory run and returns the transport shared by the customers
+    private Transport connect() throws IOException, TimeoutException {
+        if (config.transport.equals("amqp"))
+            return new AmqpTransport();
+
+        InMemoryBroker broker = InMemoryBroker.getDefault();
+        for (int i = 0; i < config.agents; i++)
+            new Agent(new InMemoryTransport(broker)).startListening();
+        for (int i = 0; i < config.buildings; i++)
+            new Building(new InMemoryTransport(broker)).start();
+
+        return new InMemoryTransport(broker);
+    }
+
+    private class SimulatedCustomer implements Runnable {
+        private final BookingClient client;
+        private final long start;
+        private final long warmupEnd;
+        private final long end;
+        private final Deque<String[]> heldReservations = new ArrayDeque<>();
+        private final Deque<String[]> confirmedReservations = new ArrayDeque<>();
+        private List<BuildingSnapshot> knownBuildings = List.of();
+
+        private SimulatedCustomer(BookingClient client, long start, long warmupEnd, long end) {
+            this.client = client;
+            this.start = start;
+            this.warmupEnd = warmupEnd;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long interval = config.rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * config.customers / config.rate) : 0;
+            // spread the customers over the first interval so they do not all send at once
+            long nextSend = start + (interval > 0 ? random.nextLong(interval) : 0);
+
+            while (nextSend < end) {
+                long now;
+                while ((now = System.nanoTime()) < nextSend)
+                    LockSupport.parkNanos(nextSend - now);
+
+                long scheduled = interval > 0 ? nextSend : now;
+                nextSend = interval > 0 ? nextSend + interval : now;
+
+                execute(weightedMix[random.nextInt(weightedMix.length)], scheduled, random);
+            }
+        }
+
+        private void execute(RequestType type, long scheduled, ThreadLocalRandom random) {
+            // requests that cannot be made yet fall back to the step before them
+            if (type == RequestType.CANCEL_BOOKING && confirmedReservations.isEmpty())
+                type = RequestType.CONFIRM_BOOKING;
+            if (type == RequestType.CONFIRM_BOOKING && heldReservations.isEmpty())
+                type = RequestType.MAKE_BOOKING;
+            if (type == RequestType.MAKE_BOOKING && knownBuildings.isEmpty())
+                type = RequestType.GET_BUILDINGS_LIST;
+
+            String[] reservation = null;
+            Command request = new Command(type);
+            switch (type) {
+                case MAKE_BOOKING -> {
+                    BuildingSnapshot building = knownBuildings.get(random.nextInt(knownBuildings.size()));
+                    List<String> rooms = new ArrayList<>(building.getRooms().keySet());
+                    request.setBuildingId(building.getBuildingId()).setRoomId(rooms.get(random.nextInt(rooms.size())));
+                }
+                case CONFIRM_BOOKING, CANCEL_BOOKING -> {
+                    reservation = type == RequestType.CONFIRM_BOOKING ? heldReservations.poll() : confirmedReservations.poll();
+                    request.setReservationId(reservation[0]).setBuildingId(reservation[1]).setRoomId(reservation[2]);
+                }
+                case AVAILABILITY_SEARCH -> request.setText(new AvailabilityQuery(null, true, 10).toText());
+                default -> {
+                }
+            }
+
+            Command response;
+            try {
+                response = client.send(request).get();
+            } catch (ExecutionException e) {
+                if (scheduled >= warmupEnd)
+                    report.recordFailure(type, e.getCause() instanceof TimeoutException);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (scheduled >= warmupEnd)
+                report.recordResponse(type, response.getStatus(), System.nanoTime() - scheduled);
+
+            if (response.getStatus() != Status.OK)
+                return;
+
+            switch (type) {
+                case GET_BUILDINGS_LIST -> knownBuildings = Utility.parseBuildingList(response.getText());
+                case MAKE_BOOKING -> heldReservations.add(new String[]{response.getReservationId(), request.getBuildingId(), request.getRoomId()});
+                case CONFIRM_BOOKING -> confirmedReservations.add(reservation);
+                default -> {
+                }
+            }
+        }
+    }
+}
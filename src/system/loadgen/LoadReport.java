@@ -0,0 +1,124 @@
+package system.loadgen;
+
+import system.metrics.LatencyHistogram;
+import system.protocol.Status;
+import system.utils.RequestType;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Outcomes and end-to-end latencies of a load test, per request type
+public class LoadReport {
+    private final Map<RequestType, Stats> stats = new EnumMap<>(RequestType.class);
+    private volatile long measuredNanos;
+
+    LoadReport() {
+        for (RequestType type : new RequestType[]{RequestType.GET_BUILDINGS_LIST, RequestType.MAKE_BOOKING, RequestType.CONFIRM_BOOKING, RequestType.CANCEL_BOOKING, RequestType.AVAILABILITY_SEARCH})
+            stats.put(type, new Stats());
+    }
+
+    void recordResponse(RequestType type, Status status, long latencyNanos) {
+        Stats typeStats = stats.get(type);
+        typeStats.latency.record(latencyNanos);
+
+        switch (status) {
+            case OK -> typeStats.succeeded.increment();
+            // another customer got to the room first
+            case ROOM_RESERVED, ROOM_BOOKED, ROOM_NOT_BOOKED -> typeStats.conflicts.increment();
+            case TIMEOUT -> {
+                typeStats.timeouts.increment();
+                typeStats.errors.increment();
+            }
+            default -> typeStats.errors.increment();
+        }
+    }
+
+    // The request was not answered in time or could not be sent
+    void recordFailure(RequestType type, boolean timedOut) {
+        Stats typeStats = stats.get(type);
+        typeStats.errors.increment();
+        if (timedOut)
+            typeStats.timeouts.increment();
+    }
+
+    void setMeasuredNanos(long measuredNanos) {
+        this.measuredNanos = measuredNanos;
+    }
+
+    private double seconds() {
+        return measuredNanos / 1e9;
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-20s %10s %10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "request", "count", "req/s", "ok", "conflicts", "errors", "timeouts", "p50 ms", "p99 ms", "p999 ms"));
+
+        long total = 0;
+        for (Map.Entry<RequestType, Stats> entry : stats.entrySet()) {
+            Stats typeStats = entry.getValue();
+            long count = typeStats.count();
+            total += count;
+
+            text.append(String.format(Locale.ROOT, "%-20s %10d %10.1f %10d %10d %10d %10d %10.3f %10.3f %10.3f%n",
+                    entry.getKey(), count, count / seconds(),
+                    typeStats.succeeded.sum(), typeStats.conflicts.sum(), typeStats.errors.sum(), typeStats.timeouts.sum(),
+                    millis(typeStats.latency.getValueAtPercentile(50)),
+                    millis(typeStats.latency.getValueAtPercentile(99)),
+                    millis(typeStats.latency.getValueAtPercentile(99.9))));
+        }
+
+        text.append(String.format(Locale.ROOT, "total %d requests in %.1f s, %.1f req/s%n", total, seconds(), total / seconds()));
+        return text.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"durationSeconds\":").append(String.format(Locale.ROOT, "%.3f", seconds())).append(",\"requests\":{");
+
+        boolean first = true;
+        for (Map.Entry<RequestType, Stats> entry : stats.entrySet()) {
+            Stats typeStats = entry.getValue();
+            if (!first)
+                json.append(',');
+            first = false;
+
+            json.append('"').append(entry.getKey()).append("\":{")
+                    .append("\"count\":").append(typeStats.count())
+                    .append(",\"throughput\":").append(String.format(Locale.ROOT, "%.3f", typeStats.count() / seconds()))
+                    .append(",\"ok\":").append(typeStats.succeeded.sum())
+                    .append(",\"conflicts\":").append(typeStats.conflicts.sum())
+                    .append(",\"errors\":").append(typeStats.errors.sum())
+                    .append(",\"timeouts\":").append(typeStats.timeouts.sum())
+                    .append(",\"latencyNanos\":{")
+                    .append("\"mean\":").append(Math.round(typeStats.latency.getMean()))
+                    .append(",\"p50\":").append(typeStats.latency.getValueAtPercentile(50))
+                    .append(",\"p99\":").append(typeStats.latency.getValueAtPercentile(99))
+                    .append(",\"p999\":").append(typeStats.latency.getValueAtPercentile(99.9))
+                    .append(",\"max\":").append(typeStats.latency.getMax())
+                    .append("}}");
+        }
+
+        return json.append("}}").toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        // client side failures have no latency, so they are counted separately
+        private long count() {
+            return succeeded.sum() + conflicts.sum() + errors.sum();
+        }
+    }
+}
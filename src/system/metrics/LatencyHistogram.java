@@ -0,0 +1,92 @@
+package system.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Lock-free histogram of non-negative values, usually latencies in nanoseconds.
+// Values below 32 are counted exactly, larger ones in log-linear buckets of 32 steps per power of two,
+// so a reported percentile is within about 3% of the recorded value. Recording never allocates.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // one linear range below SUB_BUCKET_COUNT and one for each possible shift of a positive long
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        sum.add(value);
+
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // another thread raised the maximum, compare again
+        }
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    // Upper bound of the bucket that holds the given percentile (0-100), 0 if nothing was recorded
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            count += counts.get(i);
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(bucketUpperBound(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+        totalCount.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        // keep the SUB_BUCKET_BITS + 1 highest bits of the value
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
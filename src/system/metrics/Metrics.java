@@ -0,0 +1,132 @@
+package system.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import system.protocol.Status;
+import system.utils.RequestType;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+// The metrics of one role (agent, building) in this process, shared by all its instances, so that a process hosting
+// thousands of buildings keeps one set of counters and histograms. Every role is registered as an MBean
+// (system.metrics:type=<role>) and served by the MetricsServer when -Dconferencerent.metrics.port is set.
+// Counting and recording never allocate.
+public class Metrics {
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+    private static final Map<String, Metrics> ROLES = new ConcurrentHashMap<>();
+    private static final RequestType[] TYPES = RequestType.values();
+    private static final Status[] STATUSES = Status.values();
+
+    private final String role;
+    // requests by RequestType and the Status they were answered with
+    private final AtomicLongArray requests = new AtomicLongArray(TYPES.length * STATUSES.length);
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // the gauges of all instances with the same name are added up
+    private final Map<String, List<LongSupplier>> gauges = new ConcurrentHashMap<>();
+
+    // A registered gauge, removed when the instance it reads goes away
+    public interface Gauge {
+        void remove();
+    }
+
+    private Metrics(String role) {
+        this.role = role;
+    }
+
+    // The metrics of the role, created and registered on first use
+    public static Metrics forRole(String role) {
+        return ROLES.computeIfAbsent(role, Metrics::register);
+    }
+
+    static Map<String, Metrics> getRoles() {
+        return ROLES;
+    }
+
+    private static Metrics register(String role) {
+        Metrics metrics = new Metrics(role);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), new ObjectName("system.metrics:type=" + role));
+        } catch (Exception e) {
+            LOG.error("Registering the MBean of the {} metrics failed", role, e);
+        }
+        MetricsServer.startIfConfigured();
+
+        return metrics;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void count(RequestType type, Status status) {
+        requests.incrementAndGet(type.ordinal() * STATUSES.length + status.ordinal());
+    }
+
+    public long getCount(RequestType type, Status status) {
+        return requests.get(type.ordinal() * STATUSES.length + status.ordinal());
+    }
+
+    // Look the histogram up once and keep it, recording into it is lock-free
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    public Gauge gauge(String name, LongSupplier value) {
+        List<LongSupplier> values = gauges.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>());
+        values.add(value);
+
+        return () -> values.remove(value);
+    }
+
+    public long getGauge(String name) {
+        long sum = 0;
+        for (LongSupplier value : gauges.getOrDefault(name, List.of()))
+            sum += value.getAsLong();
+
+        return sum;
+    }
+
+    Map<String, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    Map<String, List<LongSupplier>> getGauges() {
+        return gauges;
+    }
+
+    // The metrics in the Prometheus text format, counters that are still 0 are left out
+    public void writeText(StringBuilder out) {
+        String prefix = "conferencerent_" + role + "_";
+
+        out.append("# TYPE ").append(prefix).append("requests_total counter\n");
+        for (RequestType type : TYPES) {
+            for (Status status : STATUSES) {
+                long count = getCount(type, status);
+                if (count > 0)
+                    out.append(prefix).append("requests_total{type=\"").append(type).append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+            }
+        }
+
+        for (String name : gauges.keySet()) {
+            out.append("# TYPE ").append(prefix).append(name).append(" gauge\n");
+            out.append(prefix).append(name).append(' ').append(getGauge(name)).append('\n');
+        }
+
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String name = prefix + entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : new double[]{0.5, 0.99, 0.999})
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(histogram.getValueAtPercentile(quantile * 100)).append('\n');
+            out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            out.append(name).append("_max ").append(histogram.getMax()).append('\n');
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package system.metrics;
+
+import system.protocol.Status;
+import system.utils.RequestType;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+// Read-only view of the metrics of a role for JMX clients. Attributes are named
+// requests.<RequestType>.<Status>, <gauge>, and <histogram>.count / .p50 / .p99 / .p999 / .max.
+class MetricsMBean implements DynamicMBean {
+    private final Metrics metrics;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (attribute.startsWith("requests.")) {
+            String[] parts = attribute.split("\\.");
+            try {
+                return metrics.getCount(RequestType.valueOf(parts[1]), Status.valueOf(parts[2]));
+            } catch (RuntimeException e) {
+                throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        if (metrics.getGauges().containsKey(attribute))
+            return metrics.getGauge(attribute);
+
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram histogram = dot < 0 ? null : metrics.getHistograms().get(attribute.substring(0, dot));
+        if (histogram == null)
+            throw new AttributeNotFoundException(attribute);
+
+        return switch (attribute.substring(dot + 1)) {
+            case "count" -> histogram.getCount();
+            case "p50" -> histogram.getValueAtPercentile(50);
+            case "p99" -> histogram.getValueAtPercentile(99);
+            case "p999" -> histogram.getValueAtPercentile(99.9);
+            case "max" -> histogram.getMax();
+            default -> throw new AttributeNotFoundException(attribute);
+        };
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the interface expects
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("The metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("The metrics have no operations");
+    }
+
+    // Built on every call, histograms and gauges registered later show up the next time a client asks
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (RequestType type : RequestType.values()) {
+            for (Status status : Status.values())
+                attributes.add(attribute("requests." + type + "." + status, "Requests of the type answered with the status"));
+        }
+        for (String gauge : metrics.getGauges().keySet())
+            attributes.add(attribute(gauge, "Sum over all instances of the role"));
+        for (String histogram : metrics.getHistograms().keySet()) {
+            for (String statistic : new String[]{"count", "p50", "p99", "p999", "max"})
+                attributes.add(attribute(histogram + "." + statistic, "Nanoseconds, except for the count"));
+        }
+
+        return new MBeanInfo(getClass().getName(), "Metrics of the " + metrics.getRole() + " role",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String description) {
+        return new MBeanAttributeInfo(name, "long", description, true, false, false);
+    }
+}
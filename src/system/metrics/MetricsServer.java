@@ -0,0 +1,51 @@
+package system.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves the metrics of all roles of the process as text on http://127.0.0.1:<port>/metrics
+public final class MetricsServer {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsServer.class);
+    // -Dconferencerent.metrics.port, port of the scrape endpoint, unset serves no endpoint
+    public static final String PORT_PROPERTY = "conferencerent.metrics.port";
+
+    private static HttpServer server;
+
+    private MetricsServer() {
+    }
+
+    static synchronized void startIfConfigured() {
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (server != null || port == null)
+            return;
+
+        try {
+            // only local scrapers, the endpoint has no authentication
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                StringBuilder text = new StringBuilder();
+                for (Metrics metrics : Metrics.getRoles().values())
+                    metrics.writeText(text);
+
+                byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+
+            LOG.info("Serving metrics on http://127.0.0.1:{}/metrics", server.getAddress().getPort());
+        } catch (IOException e) {
+            LOG.error("Starting the metrics endpoint on port {} failed", port, e);
+        }
+    }
+}
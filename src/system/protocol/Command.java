@@ -0,0 +1,132 @@
+package system.protocol;
+
+import system.utils.RequestType;
+import system.utils.TimeRange;
+
+// A request or response exchanged between customers, agents and buildings.
+// Fields that a message type does not use are left null.
+public class Command {
+    private RequestType type;
+    private Status status = Status.OK;
+    private String customerId;
+    private String agentId;
+    private String buildingId;
+    private String roomId;
+    private String reservationId;
+    // the time a booking is for, null books the room for all time
+    private TimeRange timeRange;
+    // position of a building state change in the building's sequence of changes, null for other messages
+    private Long sequence;
+    // human-readable part of a response, or the building list
+    private String text;
+
+    public Command(RequestType type) {
+        this.type = type;
+    }
+
+    public RequestType getType() {
+        return type;
+    }
+
+    public Command setType(RequestType type) {
+        this.type = type;
+        return this;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Command setStatus(Status status) {
+        this.status = status;
+        return this;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public Command setCustomerId(String customerId) {
+        this.customerId = customerId;
+        return this;
+    }
+
+    public String getAgentId() {
+        return agentId;
+    }
+
+    public Command setAgentId(String agentId) {
+        this.agentId = agentId;
+        return this;
+    }
+
+    public String getBuildingId() {
+        return buildingId;
+    }
+
+    public Command setBuildingId(String buildingId) {
+        this.buildingId = buildingId;
+        return this;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public Command setRoomId(String roomId) {
+        this.roomId = roomId;
+        return this;
+    }
+
+    public String getReservationId() {
+        return reservationId;
+    }
+
+    public Command setReservationId(String reservationId) {
+        this.reservationId = reservationId;
+        return this;
+    }
+
+    public TimeRange getTimeRange() {
+        return timeRange;
+    }
+
+    public Command setTimeRange(TimeRange timeRange) {
+        this.timeRange = timeRange;
+        return this;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Command setSequence(Long sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Command setText(String text) {
+        this.text = text;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Command{" +
+                "type=" + type +
+                ", status=" + status +
+                ", customerId='" + customerId + '\'' +
+                ", agentId='" + agentId + '\'' +
+                ", buildingId='" + buildingId + '\'' +
+                ", roomId='" + roomId + '\'' +
+                ", reservationId='" + reservationId + '\'' +
+                ", timeRange=" + timeRange +
+                ", sequence=" + sequence +
+                ", text='" + text + '\'' +
+                '}';
+    }
+}
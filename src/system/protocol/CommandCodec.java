@@ -0,0 +1,290 @@
+package system.protocol;
+
+import system.utils.RequestType;
+import system.utils.TimeRange;
+
+import java.nio.charset.StandardCharsets;
+
+// Binary encoding of a Command:
+//
+//   version   1 byte
+//   opcode    1 byte   RequestType.getOpcode()
+//   status    1 byte   Status.getCode()
+//   customerId, agentId, buildingId, roomId, reservationId
+//             1 byte length + ASCII bytes each, length 0 means absent
+//   text      4 byte length + UTF-8 bytes, length -1 means absent
+//
+// Version 2 appends the optional fields below, it is only used when one of them is set so that version 1 readers keep working:
+//
+//   flags     1 byte   which of the fields follow, in this order
+//   timeRange 8 byte start + 8 byte end in epoch milliseconds   (flag 1)
+//   sequence  8 bytes                                            (flag 2)
+//
+// Messages that do not start with the version byte are parsed as legacy text, see LegacyFormat.
+public final class CommandCodec {
+    public static final byte VERSION = 1;
+    public static final byte VERSION_2 = 2;
+
+    private static final int HEADER_LENGTH = 3;
+    private static final int HAS_TIME_RANGE = 1;
+    private static final int HAS_SEQUENCE = 2;
+    private static final int MAX_ID_LENGTH = 255;
+    private static final String RESERVATION_ID_MARKER = "RESERVATION_ID ";
+
+    private CommandCodec() {
+    }
+
+    public static byte[] encode(Command command) {
+        byte[] text = command.getText() == null ? null : command.getText().getBytes(StandardCharsets.UTF_8);
+
+        int length = HEADER_LENGTH
+                + idLength(command.getCustomerId())
+                + idLength(command.getAgentId())
+                + idLength(command.getBuildingId())
+                + idLength(command.getRoomId())
+                + idLength(command.getReservationId())
+                + 4 + (text == null ? 0 : text.length);
+        TimeRange timeRange = command.getTimeRange();
+        Long sequence = command.getSequence();
+        int flags = (timeRange != null ? HAS_TIME_RANGE : 0) | (sequence != null ? HAS_SEQUENCE : 0);
+        if (flags != 0)
+            length += 1 + (timeRange != null ? 16 : 0) + (sequence != null ? 8 : 0);
+
+        byte[] buffer = new byte[length];
+        buffer[0] = flags == 0 ? VERSION : VERSION_2;
+        buffer[1] = command.getType().getOpcode();
+        buffer[2] = command.getStatus().getCode();
+
+        int position = HEADER_LENGTH;
+        position = writeId(buffer, position, command.getCustomerId());
+        position = writeId(buffer, position, command.getAgentId());
+        position = writeId(buffer, position, command.getBuildingId());
+        position = writeId(buffer, position, command.getRoomId());
+        position = writeId(buffer, position, command.getReservationId());
+
+        if (text == null) {
+            writeInt(buffer, position, -1);
+            position += 4;
+        } else {
+            writeInt(buffer, position, text.length);
+            System.arraycopy(text, 0, buffer, position + 4, text.length);
+            position += 4 + text.length;
+        }
+
+        if (flags != 0)
+            buffer[position++] = (byte) flags;
+        if (timeRange != null) {
+            writeLong(buffer, position, timeRange.getStart());
+            writeLong(buffer, position + 8, timeRange.getEnd());
+            position += 16;
+        }
+        if (sequence != null)
+            writeLong(buffer, position, sequence);
+
+        return buffer;
+    }
+
+    // A request in the legacy text format, for buildings that only announce themselves in text.
+    // The format has no time ranges, only BUILDING_REQUEST is written since only buildings are still reached with it.
+    public static byte[] encodeLegacy(Command command, LegacyFormat format) {
+        if (format != LegacyFormat.BUILDING_REQUEST)
+            throw new IllegalArgumentException("Only building requests are written in the legacy format, not " + format);
+
+        RequestType type = command.getType();
+        String message = type == RequestType.MAKE_BOOKING
+                ? type + " " + command.getRoomId() + " " + command.getCustomerId() + " " + command.getAgentId()
+                : type + " " + command.getReservationId() + " " + command.getAgentId() + " " + command.getRoomId();
+
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Whether the message is in the binary encoding rather than legacy text
+    public static boolean isBinary(byte[] body) {
+        return body.length > 0 && (body[0] == VERSION || body[0] == VERSION_2);
+    }
+
+    // Decodes a binary message, or a legacy text message in the given format
+    public static Command decode(byte[] body, LegacyFormat legacyFormat) {
+        if (isBinary(body))
+            return decodeBinary(body);
+
+        return decodeLegacy(new String(body, StandardCharsets.UTF_8), legacyFormat);
+    }
+
+    // Messages come from other processes, a malformed one fails with an IllegalArgumentException that says what is wrong
+    private static Command decodeBinary(byte[] body) {
+        require(body, 0, HEADER_LENGTH);
+        Command command = new Command(RequestType.fromOpcode(body[1]));
+        command.setStatus(Status.fromCode(body[2]));
+
+        int position = HEADER_LENGTH;
+
+        int length = readIdLength(body, position++);
+        command.setCustomerId(readId(body, position, length));
+        position += length;
+
+        length = readIdLength(body, position++);
+        command.setAgentId(readId(body, position, length));
+        position += length;
+
+        length = readIdLength(body, position++);
+        command.setBuildingId(readId(body, position, length));
+        position += length;
+
+        length = readIdLength(body, position++);
+        command.setRoomId(readId(body, position, length));
+        position += length;
+
+        length = readIdLength(body, position++);
+        command.setReservationId(readId(body, position, length));
+        position += length;
+
+        require(body, position, 4);
+        int textLength = readInt(body, position);
+        position += 4;
+        if (textLength < -1)
+            throw new IllegalArgumentException("Invalid text length " + textLength + " at byte " + (position - 4));
+        if (textLength >= 0) {
+            require(body, position, textLength);
+            command.setText(new String(body, position, textLength, StandardCharsets.UTF_8));
+            position += textLength;
+        }
+
+        if (body[0] >= VERSION_2) {
+            require(body, position, 1);
+            int flags = body[position++];
+            if ((flags & HAS_TIME_RANGE) != 0) {
+                require(body, position, 16);
+                command.setTimeRange(new TimeRange(readLong(body, position), readLong(body, position + 8)));
+                position += 16;
+            }
+            if ((flags & HAS_SEQUENCE) != 0) {
+                require(body, position, 8);
+                command.setSequence(readLong(body, position));
+            }
+        }
+
+        return command;
+    }
+
+    private static void require(byte[] body, int position, int count) {
+        if (body.length - position < count)
+            throw new IllegalArgumentException("Truncated message of " + body.length + " bytes, expected "
+                    + count + " more bytes at byte " + position);
+    }
+
+    private static int idLength(String id) {
+        if (id == null)
+            return 1;
+        if (id.isEmpty() || id.length() > MAX_ID_LENGTH)
+            throw new IllegalArgumentException("ID must have 1 to " + MAX_ID_LENGTH + " characters: '" + id + "'");
+
+        return 1 + id.length();
+    }
+
+    private static int writeId(byte[] buffer, int position, String id) {
+        if (id == null) {
+            buffer[position] = 0;
+            return position + 1;
+        }
+
+        buffer[position++] = (byte) id.length();
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c > 0x7F)
+                throw new IllegalArgumentException("ID must be ASCII: '" + id + "'");
+            buffer[position++] = (byte) c;
+        }
+
+        return position;
+    }
+
+    private static int readIdLength(byte[] buffer, int position) {
+        require(buffer, position, 1);
+        return buffer[position] & 0xFF;
+    }
+
+    private static String readId(byte[] buffer, int position, int length) {
+        require(buffer, position, length);
+
+        // ISO-8859-1 maps each byte to one char, which is a plain copy for compact strings
+        return length == 0 ? null : new String(buffer, position, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void writeInt(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) (value >>> 24);
+        buffer[position + 1] = (byte) (value >>> 16);
+        buffer[position + 2] = (byte) (value >>> 8);
+        buffer[position + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int position) {
+        return (buffer[position] & 0xFF) << 24
+                | (buffer[position + 1] & 0xFF) << 16
+                | (buffer[position + 2] & 0xFF) << 8
+                | (buffer[position + 3] & 0xFF);
+    }
+
+    private static void writeLong(byte[] buffer, int position, long value) {
+        writeInt(buffer, position, (int) (value >>> 32));
+        writeInt(buffer, position + 4, (int) value);
+    }
+
+    private static long readLong(byte[] buffer, int position) {
+        return (long) readInt(buffer, position) << 32 | readInt(buffer, position + 4) & 0xFFFFFFFFL;
+    }
+
+    private static Command decodeLegacy(String message, LegacyFormat format) {
+        if (format == LegacyFormat.CUSTOMER_RESPONSE && !message.startsWith(RequestType.BUILDINGS_LIST + " ")) {
+            // the agent forwarded the building's text without its type
+            return new Command(null).setText(message);
+        }
+
+        String[] parts = message.split(" ");
+        RequestType type;
+        try {
+            type = RequestType.valueOf(parts[0]);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Legacy " + format + " '" + message + "' has an unknown type", e);
+        }
+        Command command = new Command(type);
+
+        int required = switch (format) {
+            case CUSTOMER_REQUEST -> type == RequestType.MAKE_BOOKING ? 4 : type == RequestType.GET_BUILDINGS_LIST ? 2 : 5;
+            case BUILDING_REQUEST -> 4;
+            case BUILDING_RESPONSE, CUSTOMER_RESPONSE -> 1;
+        };
+        if (parts.length < required)
+            throw new IllegalArgumentException("Legacy " + format + " '" + message + "' has " + parts.length + " parts, expected " + required);
+
+        switch (format) {
+            case CUSTOMER_REQUEST -> {
+                command.setCustomerId(parts[1]);
+                if (type == RequestType.MAKE_BOOKING) {
+                    command.setBuildingId(parts[2]).setRoomId(parts[3]);
+                } else if (type != RequestType.GET_BUILDINGS_LIST) {
+                    command.setReservationId(parts[2]).setBuildingId(parts[3]).setRoomId(parts[4]);
+                }
+            }
+            case BUILDING_REQUEST -> {
+                if (type == RequestType.MAKE_BOOKING)
+                    command.setRoomId(parts[1]).setCustomerId(parts[2]).setAgentId(parts[3]);
+                else
+                    command.setReservationId(parts[1]).setAgentId(parts[2]).setRoomId(parts[3]);
+            }
+            case BUILDING_RESPONSE, CUSTOMER_RESPONSE -> {
+                String text = message.length() > parts[0].length() ? message.substring(parts[0].length() + 1) : "";
+                command.setText(text);
+
+                if (type.name().startsWith("INVALID_"))
+                    command.setStatus(Status.REJECTED);
+
+                int marker = text.lastIndexOf(RESERVATION_ID_MARKER);
+                if (type == RequestType.BOOKING_MADE && marker != -1)
+                    command.setReservationId(text.substring(marker + RESERVATION_ID_MARKER.length()).trim());
+            }
+        }
+
+        return command;
+    }
+}
@@ -0,0 +1,14 @@
+package system.protocol;
+
+// The space-delimited text messages used before the binary envelope.
+// Field order depends on who sent the message, so the receiver states which one it expects.
+public enum LegacyFormat {
+    // TYPE customerId [reservationId] [buildingId roomId]
+    CUSTOMER_REQUEST,
+    // MAKE_BOOKING roomId customerId agentId, CONFIRM_BOOKING/CANCEL_BOOKING reservationId agentId roomId
+    BUILDING_REQUEST,
+    // TYPE text, the text of BOOKING_MADE ends with RESERVATION_ID reservationId
+    BUILDING_RESPONSE,
+    // BUILDINGS_LIST [...] or the text of a building response without its type
+    CUSTOMER_RESPONSE
+}
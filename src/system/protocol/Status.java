@@ -0,0 +1,43 @@
+package system.protocol;
+
+// Outcome of a request, carried next to the human-readable text of a response
+public enum Status {
+    OK(0),
+    ROOM_NOT_FOUND(1),
+    ROOM_RESERVED(2),
+    ROOM_BOOKED(3),
+    ROOM_NOT_BOOKED(4),
+    RESERVATION_NOT_FOUND(5),
+    INVALID_IDS(6),
+    // a rejection received in the legacy text format, which does not state the reason
+    REJECTED(7),
+    TIMEOUT(8),
+    EXPIRED(9),
+    // the time range of a booking request does not match the reservation it refers to
+    TIME_RANGE_MISMATCH(10);
+
+    private static final Status[] BY_CODE = new Status[256];
+
+    static {
+        for (Status status : values())
+            BY_CODE[status.code] = status;
+    }
+
+    private final int code;
+
+    Status(int code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return (byte) code;
+    }
+
+    public static Status fromCode(byte code) {
+        Status status = BY_CODE[code & 0xFF];
+        if (status == null)
+            throw new IllegalArgumentException("Unknown status code: " + (code & 0xFF));
+
+        return status;
+    }
+}
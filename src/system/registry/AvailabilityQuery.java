@@ -0,0 +1,63 @@
+package system.registry;
+
+// Filters of an AVAILABILITY_SEARCH, sent in the text of the request as "freeOnly=true limit=20".
+// The building to search in, if any, is the building ID of the request.
+public class AvailabilityQuery {
+    public static final int DEFAULT_LIMIT = 50;
+
+    private final String buildingId;
+    private final boolean freeOnly;
+    // at most this many rooms are returned, 0 returns all of them
+    private final int limit;
+
+    public AvailabilityQuery(String buildingId, boolean freeOnly, int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("The limit must not be negative: " + limit);
+
+        this.buildingId = buildingId;
+        this.freeOnly = freeOnly;
+        this.limit = limit;
+    }
+
+    // Missing filters keep their defaults, free rooms only and DEFAULT_LIMIT
+    public static AvailabilityQuery parse(String buildingId, String text) {
+        boolean freeOnly = true;
+        int limit = DEFAULT_LIMIT;
+
+        if (text != null) {
+            for (String filter : text.trim().split("\\s+")) {
+                if (filter.startsWith("freeOnly="))
+                    freeOnly = Boolean.parseBoolean(filter.substring("freeOnly=".length()));
+                else if (filter.startsWith("limit="))
+                    limit = Integer.parseInt(filter.substring("limit=".length()));
+            }
+        }
+
+        return new AvailabilityQuery(buildingId, freeOnly, limit);
+    }
+
+    public String toText() {
+        return "freeOnly=" + freeOnly + " limit=" + limit;
+    }
+
+    public String getBuildingId() {
+        return buildingId;
+    }
+
+    public boolean isFreeOnly() {
+        return freeOnly;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "AvailabilityQuery{" +
+                "buildingId='" + buildingId + '\'' +
+                ", freeOnly=" + freeOnly +
+                ", limit=" + limit +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+package system.registry;
+
+// Paging of a GET_BUILDINGS_LIST, sent in the text of the request as "after=<buildingId> limit=100 stream=true".
+// Buildings are listed in the order of their IDs and the cursor is the ID of the last building of the
+// previous page, so pages stay consistent while buildings come and go. A request without paging gets the whole list.
+public class BuildingListQuery {
+    public static final int DEFAULT_LIMIT = 100;
+    // upper bound of the buildings in one page or chunk, keeps every message small
+    public static final int MAX_LIMIT = 1000;
+
+    private final String after;
+    private final int limit;
+    // whether all pages are sent at once, one message per page, instead of only the first one
+    private final boolean stream;
+
+    public BuildingListQuery(String after, int limit, boolean stream) {
+        if (limit <= 0)
+            throw new IllegalArgumentException("The limit must be positive: " + limit);
+
+        this.after = after;
+        this.limit = Math.min(limit, MAX_LIMIT);
+        this.stream = stream;
+    }
+
+    // Returns null for a request without paging
+    public static BuildingListQuery parse(String text) {
+        if (text == null || text.isBlank())
+            return null;
+
+        String after = null;
+        int limit = DEFAULT_LIMIT;
+        boolean stream = false;
+
+        for (String filter : text.trim().split("\\s+")) {
+            if (filter.startsWith("after="))
+                after = filter.substring("after=".length());
+            else if (filter.startsWith("limit="))
+                limit = Integer.parseInt(filter.substring("limit=".length()));
+            else if (filter.startsWith("stream="))
+                stream = Boolean.parseBoolean(filter.substring("stream=".length()));
+        }
+
+        return new BuildingListQuery(after, limit, stream);
+    }
+
+    public String toText() {
+        return (after == null ? "" : "after=" + after + " ") + "limit=" + limit + " stream=" + stream;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+}
@@ -0,0 +1,178 @@
+package system.registry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The buildings an agent knows about, keyed by building ID.
+// A full state replaces the snapshot of a building, a delta flips the rooms it names in the snapshot under the lock
+// of the registry. The registry can be read from any consumer thread.
+public class BuildingRegistry {
+    private final ConcurrentHashMap<String, BuildingSnapshot> buildings = new ConcurrentHashMap<>();
+    // the subset of the buildings that have at least one free room, so that a search for free rooms
+    // never visits a building it gets nothing from
+    private final ConcurrentHashMap<String, BuildingSnapshot> buildingsWithFreeRooms = new ConcurrentHashMap<>();
+    // the same buildings ordered by ID, for paging through the list
+    private final ConcurrentSkipListMap<String, BuildingSnapshot> buildingsInOrder = new ConcurrentSkipListMap<>();
+    // incremented after every update, lets readers cache what they derive from the registry
+    private final AtomicLong version = new AtomicLong();
+
+    // Adds a newly announced building or replaces the previous snapshot of a known one
+    public BuildingSnapshot update(String message) {
+        BuildingSnapshot snapshot = BuildingSnapshot.parse(message);
+        put(snapshot);
+
+        return snapshot;
+    }
+
+    // Replaces the snapshot of a building with its full state.
+    // The state always wins, also over a later sequence number, since a restarted building numbers its changes from 0 again.
+    public BuildingSnapshot applyState(String description, long sequence) {
+        BuildingSnapshot snapshot = BuildingSnapshot.parse(description, sequence);
+        put(snapshot);
+        return snapshot;
+    }
+
+    // Applies the changed rooms of a building if the delta directly follows the known state, or was applied already.
+    // Returns false if the building is unknown or changes were missed, then the full state has to be requested.
+    public synchronized boolean applyDelta(String buildingId, long sequence, Map<String, Boolean> changedRooms) {
+        BuildingSnapshot current = buildings.get(buildingId);
+        if (current == null || current.getSequence() == BuildingSnapshot.UNKNOWN_SEQUENCE)
+            return false;
+        if (sequence <= current.getSequence())
+            return true;
+        if (sequence != current.getSequence() + 1)
+            return false;
+
+        if (current.applyChanges(changedRooms, sequence)) {
+            indexFreeRooms(current);
+            version.incrementAndGet();
+        } else {
+            put(current.withChanges(changedRooms, sequence));
+        }
+        return true;
+    }
+
+    private synchronized void put(BuildingSnapshot snapshot) {
+        buildings.put(snapshot.getBuildingId(), snapshot);
+        buildingsInOrder.put(snapshot.getBuildingId(), snapshot);
+
+        indexFreeRooms(snapshot);
+
+        version.incrementAndGet();
+    }
+
+    // only the entry of the updated building changes
+    private void indexFreeRooms(BuildingSnapshot snapshot) {
+        if (snapshot.getFreeRoomCount() == 0)
+            buildingsWithFreeRooms.remove(snapshot.getBuildingId());
+        else
+            buildingsWithFreeRooms.put(snapshot.getBuildingId(), snapshot);
+    }
+
+    // Up to limit buildings with IDs after the given one, or from the first one if it is null
+    public List<BuildingSnapshot> page(String after, int limit) {
+        Collection<BuildingSnapshot> candidates = after == null ? buildingsInOrder.values() : buildingsInOrder.tailMap(after, false).values();
+        List<BuildingSnapshot> page = new ArrayList<>(Math.min(limit, 64));
+
+        for (BuildingSnapshot snapshot : candidates) {
+            if (page.size() == limit)
+                break;
+            page.add(snapshot);
+        }
+
+        return page;
+    }
+
+    // The rooms matching the query in the format of toString(), buildings without a matching room are left out.
+    // Takes time proportional to the rooms returned, not to the number of buildings or rooms known.
+    public String search(AvailabilityQuery query) {
+        int remaining = query.getLimit() == 0 ? Integer.MAX_VALUE : query.getLimit();
+        StringBuilder builder = new StringBuilder("[");
+
+        if (query.getBuildingId() != null) {
+            BuildingSnapshot snapshot = buildings.get(query.getBuildingId());
+            if (snapshot != null)
+                appendMatches(builder, snapshot, query.isFreeOnly(), remaining);
+        } else {
+            Collection<BuildingSnapshot> candidates = query.isFreeOnly() ? buildingsWithFreeRooms.values() : buildings.values();
+            for (BuildingSnapshot snapshot : candidates) {
+                if (remaining == 0)
+                    break;
+                remaining -= appendMatches(builder, snapshot, query.isFreeOnly(), remaining);
+            }
+        }
+
+        return builder.append(']').toString();
+    }
+
+    private static int appendMatches(StringBuilder builder, BuildingSnapshot snapshot, boolean freeOnly, int limit) {
+        Map<String, Boolean> matches;
+
+        if (freeOnly) {
+            matches = new LinkedHashMap<>();
+            for (String roomId : snapshot.getFreeRooms(limit))
+                matches.put(roomId, false);
+        } else {
+            matches = snapshot.getRooms(limit);
+        }
+
+        if (matches.isEmpty())
+            return 0;
+
+        if (builder.length() > 1)
+            builder.append(", ");
+        BuildingSnapshot.describe(builder, snapshot.getBuildingId(), matches);
+
+        return matches.size();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    // The building with the ID, null if it is not known or the ID is null
+    public BuildingSnapshot get(String buildingId) {
+        return buildingId == null ? null : buildings.get(buildingId);
+    }
+
+    public boolean containsRoom(String buildingId, String roomId) {
+        BuildingSnapshot snapshot = get(buildingId);
+
+        return snapshot != null && snapshot.containsRoom(roomId);
+    }
+
+    public Collection<BuildingSnapshot> getBuildings() {
+        return buildings.values();
+    }
+
+    public int size() {
+        return buildings.size();
+    }
+
+    // Same format as List.toString() of the building descriptions, as expected by Utility.printBuildingList
+    @Override
+    public String toString() {
+        return describe(buildings.values());
+    }
+
+    public static String describe(Collection<BuildingSnapshot> snapshots) {
+        Iterator<BuildingSnapshot> iterator = snapshots.iterator();
+        if (!iterator.hasNext())
+            return "[]";
+
+        StringBuilder builder = new StringBuilder("[");
+        while (true) {
+            builder.append(iterator.next());
+            if (!iterator.hasNext())
+                return builder.append(']').toString();
+            builder.append(", ");
+        }
+    }
+}
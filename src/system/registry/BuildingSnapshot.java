@@ -0,0 +1,235 @@
+package system.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Parsed view of the information a building publishes about itself. The rooms are fixed when the snapshot is made,
+// their booked flags are bits that the deltas of the building flip in place, see BuildingRegistry.applyDelta.
+// A delta is applied by one thread at a time, readers on any thread see each room before or after a change.
+public class BuildingSnapshot {
+    // the sequence number of a snapshot from a building that does not number its changes
+    public static final long UNKNOWN_SEQUENCE = -1;
+
+    private static final String BUILDING_ID_PREFIX = "buildingID='";
+    private static final String ROOM_ID_PREFIX = "roomId='";
+    private static final String IS_BOOKED_PREFIX = "isBooked=";
+
+    private final String buildingId;
+    // the room IDs in the order the building lists its rooms
+    private final String[] roomIds;
+    // roomId -> index of the room, never changed after the constructor
+    private final Map<String, Integer> indexes;
+    // one bit per room index, set while the room is booked
+    private final AtomicLongArray booked;
+    private volatile int freeRoomCount;
+    // the last change of the building this snapshot includes, written after the bits of the change
+    private volatile long sequence;
+    // the description and the sequence it shows, the message as it was received until a delta is applied
+    private volatile Description description;
+
+    public BuildingSnapshot(String buildingId, Map<String, Boolean> rooms, String description) {
+        this(buildingId, rooms, description, UNKNOWN_SEQUENCE);
+    }
+
+    public BuildingSnapshot(String buildingId, Map<String, Boolean> rooms, String description, long sequence) {
+        this.buildingId = buildingId;
+        this.roomIds = new String[rooms.size()];
+        this.indexes = new HashMap<>(rooms.size() * 4 / 3 + 1);
+        this.booked = new AtomicLongArray((rooms.size() + 63) >>> 6);
+        this.sequence = sequence;
+        this.description = description == null ? null : new Description(sequence, description);
+
+        int index = 0;
+        int free = 0;
+        for (Map.Entry<String, Boolean> room : rooms.entrySet()) {
+            roomIds[index] = room.getKey();
+            indexes.put(room.getKey(), index);
+            if (room.getValue())
+                booked.set(index >>> 6, booked.get(index >>> 6) | 1L << index);
+            else
+                free++;
+            index++;
+        }
+        this.freeRoomCount = free;
+    }
+
+    public static BuildingSnapshot parse(String message) {
+        return parse(message, UNKNOWN_SEQUENCE);
+    }
+
+    // Parses the Building.toString() format in a single pass over the message:
+    // Building{buildingID='id', rooms=[Room{roomId='id', isBooked=false}, ...]}
+    public static BuildingSnapshot parse(String message, long sequence) {
+        int idStart = message.indexOf(BUILDING_ID_PREFIX);
+        if (idStart == -1)
+            throw new IllegalArgumentException("Not a building description: " + message);
+
+        idStart += BUILDING_ID_PREFIX.length();
+        int idEnd = message.indexOf('\'', idStart);
+        String buildingId = message.substring(idStart, idEnd);
+
+        return new BuildingSnapshot(buildingId, parseRooms(message, idEnd), message, sequence);
+    }
+
+    // Parses the rooms of a building description, or a list of rooms such as [Room{roomId='id', isBooked=false}, ...]
+    // A room without an isBooked flag is left out, parsing stops where the message is cut off.
+    public static Map<String, Boolean> parseRooms(String message, int from) {
+        Map<String, Boolean> rooms = new LinkedHashMap<>();
+        int position = from;
+        while ((position = message.indexOf(ROOM_ID_PREFIX, position)) != -1) {
+            int roomIdStart = position + ROOM_ID_PREFIX.length();
+            int roomIdEnd = message.indexOf('\'', roomIdStart);
+            if (roomIdEnd == -1)
+                break;
+
+            int booked = message.indexOf(IS_BOOKED_PREFIX, roomIdEnd);
+            if (booked == -1)
+                break;
+
+            // the flag belongs to a later room, this one has none
+            int nextRoom = message.indexOf(ROOM_ID_PREFIX, roomIdEnd);
+            if (nextRoom != -1 && nextRoom < booked) {
+                position = nextRoom;
+                continue;
+            }
+
+            int bookedStart = booked + IS_BOOKED_PREFIX.length();
+            rooms.put(message.substring(roomIdStart, roomIdEnd), message.startsWith("true", bookedStart));
+            position = bookedStart;
+        }
+
+        return rooms;
+    }
+
+    // Applies the changed rooms of a delta in time proportional to the changes. Returns false without changing anything
+    // if the delta names a room the snapshot does not have, see withChanges. Called by one thread at a time.
+    boolean applyChanges(Map<String, Boolean> changedRooms, long sequence) {
+        for (String roomId : changedRooms.keySet()) {
+            if (!indexes.containsKey(roomId))
+                return false;
+        }
+
+        int free = freeRoomCount;
+        for (Map.Entry<String, Boolean> room : changedRooms.entrySet()) {
+            int index = indexes.get(room.getKey());
+            long bit = 1L << index;
+            long word = booked.get(index >>> 6);
+            boolean wasBooked = (word & bit) != 0;
+            if (wasBooked == room.getValue())
+                continue;
+
+            booked.set(index >>> 6, word ^ bit);
+            free += wasBooked ? 1 : -1;
+        }
+        freeRoomCount = free;
+        this.sequence = sequence;
+
+        return true;
+    }
+
+    // A copy with the changed rooms of a delta applied, for a delta that adds rooms the building did not list before
+    BuildingSnapshot withChanges(Map<String, Boolean> changedRooms, long sequence) {
+        Map<String, Boolean> updated = getRooms();
+        updated.putAll(changedRooms);
+
+        return new BuildingSnapshot(buildingId, updated, null, sequence);
+    }
+
+    public String getBuildingId() {
+        return buildingId;
+    }
+
+    // A copy of roomId -> isBooked, in the order the building lists its rooms
+    public Map<String, Boolean> getRooms() {
+        return getRooms(roomIds.length);
+    }
+
+    // The first rooms of the building, up to the limit
+    public Map<String, Boolean> getRooms(int limit) {
+        Map<String, Boolean> rooms = new LinkedHashMap<>();
+        for (int index = 0; index < roomIds.length && rooms.size() < limit; index++)
+            rooms.put(roomIds[index], isBooked(index));
+
+        return rooms;
+    }
+
+    // Up to limit IDs of rooms that are not booked, in the order the building lists them. Looks at 64 rooms at a time.
+    public List<String> getFreeRooms(int limit) {
+        List<String> free = new ArrayList<>(Math.min(limit, freeRoomCount));
+        for (int word = 0; word < booked.length() && free.size() < limit; word++) {
+            int roomsInWord = roomIds.length - (word << 6);
+            long bits = ~booked.get(word) & (roomsInWord >= 64 ? -1L : (1L << roomsInWord) - 1);
+            while (bits != 0 && free.size() < limit) {
+                free.add(roomIds[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+                bits &= bits - 1;
+            }
+        }
+
+        return free;
+    }
+
+    public int getFreeRoomCount() {
+        return freeRoomCount;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean containsRoom(String roomId) {
+        return indexes.containsKey(roomId);
+    }
+
+    public boolean isBooked(String roomId) {
+        Integer index = indexes.get(roomId);
+        return index != null && isBooked(index);
+    }
+
+    private boolean isBooked(int index) {
+        return (booked.get(index >>> 6) & 1L << index) != 0;
+    }
+
+    // Appends a building with some of its rooms in the Building.toString() format
+    static void describe(StringBuilder builder, String buildingId, Map<String, Boolean> rooms) {
+        builder.append("Building{buildingID='").append(buildingId).append("', rooms=[");
+
+        boolean first = true;
+        for (Map.Entry<String, Boolean> room : rooms.entrySet()) {
+            if (!first)
+                builder.append(", ");
+            first = false;
+            builder.append("Room{roomId='").append(room.getKey()).append("', isBooked=").append(room.getValue()).append('}');
+        }
+
+        builder.append("]}");
+    }
+
+    @Override
+    public String toString() {
+        // a description made while a delta was applied shows an older sequence and is not used again
+        long sequence = this.sequence;
+        Description description = this.description;
+        if (description == null || description.sequence != sequence) {
+            StringBuilder builder = new StringBuilder();
+            describe(builder, buildingId, getRooms());
+            description = new Description(sequence, builder.toString());
+            this.description = description;
+        }
+
+        return description.text;
+    }
+
+    private static class Description {
+        private final long sequence;
+        private final String text;
+
+        private Description(long sequence, String text) {
+            this.sequence = sequence;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package system.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Appends spans to a file on a background thread, one line per span:
+//   <traceId> <parentSpanId> <hop> <startMicros> <durationMicros>
+// separated by tabs, the IDs in hex. Spans are dropped while the buffer is full, the roles never wait for the disk.
+class SpanExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(SpanExporter.class);
+    private static final int BUFFER_SIZE = 65_536;
+
+    private final Path file;
+    private final BlockingQueue<Span> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+
+    SpanExporter(Path file) {
+        this.file = file;
+
+        Thread writer = new Thread(this::writeLoop, "span-exporter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void export(long traceId, long parentSpanId, String hop, long startMicros, long durationMicros) {
+        if (!buffer.offer(new Span(traceId, parentSpanId, hop, startMicros, durationMicros)))
+            dropped.incrementAndGet();
+    }
+
+    private void writeLoop() {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (true) {
+                Span span = buffer.take();
+
+                out.write(Long.toHexString(span.traceId));
+                out.write('\t');
+                out.write(Long.toHexString(span.parentSpanId));
+                out.write('\t');
+                out.write(span.hop);
+                out.write('\t');
+                out.write(Long.toString(span.startMicros));
+                out.write('\t');
+                out.write(Long.toString(span.durationMicros));
+                out.write('\n');
+                // written out whenever the buffer runs empty, so a stopped process loses at most the spans of the last moment
+                if (buffer.isEmpty())
+                    out.flush();
+
+                long lost = dropped.getAndSet(0);
+                if (lost > 0)
+                    LOG.warn("Dropped {} spans, the exporter could not keep up", lost);
+            }
+        } catch (IOException e) {
+            LOG.error("Writing the spans failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Span {
+        private final long traceId;
+        private final long parentSpanId;
+        private final String hop;
+        private final long startMicros;
+        private final long durationMicros;
+
+        private Span(long traceId, long parentSpanId, String hop, long startMicros, long durationMicros) {
+            this.traceId = traceId;
+            this.parentSpanId = parentSpanId;
+            this.hop = hop;
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package system.tracing;
+
+// Travels with a message: the trace it belongs to, the span that sent it and when it was published.
+// AMQP carries it in the x-trace header as <traceId>:<spanId>:<sentAtMicros>, the IDs in hex.
+public class TraceContext {
+    public static final String HEADER = "x-trace";
+
+    private final long traceId;
+    private final long spanId;
+    // Tracing.nowMicros() when the message was published
+    private final long sentAtMicros;
+
+    public TraceContext(long traceId, long spanId, long sentAtMicros) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sentAtMicros = sentAtMicros;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public long getSentAtMicros() {
+        return sentAtMicros;
+    }
+
+    public String toHeader() {
+        return Long.toHexString(traceId) + ":" + Long.toHexString(spanId) + ":" + sentAtMicros;
+    }
+
+    // null for a missing or malformed header, a message is never rejected because of its trace
+    public static TraceContext fromHeader(Object header) {
+        if (header == null)
+            return null;
+
+        String[] fields = header.toString().split(":");
+        if (fields.length != 3)
+            return null;
+
+        try {
+            return new TraceContext(Long.parseUnsignedLong(fields[0], 16), Long.parseUnsignedLong(fields[1], 16), Long.parseLong(fields[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toHeader();
+    }
+}
@@ -0,0 +1,93 @@
+package system.tracing;
+
+import system.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+// Reads the span files of all roles and shows where the time of a request goes.
+// Usage: TraceSummary [span file]...
+// The first table has the latency of every hop over all traces. The second one takes the slowest 1% of the requests,
+// by customer round trip, and shows the mean time of every hop in them, so queueing and handling can be told apart.
+public class TraceSummary {
+    // recorded by the customer from publishing a request until its response arrived
+    private static final String ROUND_TRIP = "customer.round_trip";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: TraceSummary [span file]...");
+            return;
+        }
+
+        Map<String, LatencyHistogram> hops = new TreeMap<>();
+        // traceId -> hop -> microseconds, the hops of a trace that were passed more than once are added up
+        Map<String, Map<String, Long>> traces = new HashMap<>();
+
+        for (String file : args) {
+            try (Stream<String> lines = Files.lines(Path.of(file))) {
+                lines.forEach(line -> {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 5)
+                        return;
+
+                    long duration = Long.parseLong(fields[4]);
+                    hops.computeIfAbsent(fields[2], hop -> new LatencyHistogram()).record(duration);
+                    traces.computeIfAbsent(fields[0], trace -> new HashMap<>()).merge(fields[2], duration, Long::sum);
+                });
+            }
+        }
+
+        System.out.printf("%-28s %10s %10s %10s %10s %10s%n", "hop", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<String, LatencyHistogram> entry : hops.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            System.out.printf("%-28s %10d %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), histogram.getCount(),
+                    millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getValueAtPercentile(99.9)), millis(histogram.getMax()));
+        }
+
+        LatencyHistogram roundTrips = hops.get(ROUND_TRIP);
+        if (roundTrips == null) {
+            System.out.println("No " + ROUND_TRIP + " spans, the customers were not traced");
+            return;
+        }
+
+        long p99 = roundTrips.getValueAtPercentile(99);
+        List<Map<String, Long>> slowest = new ArrayList<>();
+        for (Map<String, Long> trace : traces.values()) {
+            Long roundTrip = trace.get(ROUND_TRIP);
+            if (roundTrip != null && roundTrip >= p99)
+                slowest.add(trace);
+        }
+
+        System.out.println();
+        System.out.printf("%d requests at or above the p99 round trip of %.3f ms, mean time per hop:%n", slowest.size(), millis(p99));
+        Map<String, Long> totals = new TreeMap<>();
+        for (Map<String, Long> trace : slowest) {
+            for (Map.Entry<String, Long> hop : trace.entrySet())
+                totals.merge(hop.getKey(), hop.getValue(), Long::sum);
+        }
+
+        long roundTripTotal = totals.getOrDefault(ROUND_TRIP, 0L);
+        long attributed = 0;
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            if (total.getKey().equals(ROUND_TRIP))
+                continue;
+            attributed += total.getValue();
+            System.out.printf("%-28s %10.3f ms %6.1f%%%n", total.getKey(), millis(total.getValue() / slowest.size()), 100.0 * total.getValue() / roundTripTotal);
+        }
+        // the time between the hops, such as a building waiting for its log before it responds.
+        // Slightly negative when hops overlap, a handler still runs for a moment after it has published.
+        System.out.printf("%-28s %10.3f ms %6.1f%%%n", "(not attributed)", millis((roundTripTotal - attributed) / slowest.size()), 100.0 * (roundTripTotal - attributed) / roundTripTotal);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,61 @@
+package system.tracing;
+
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Entry point of the roles for tracing. A customer starts a trace with every request, every hop publishes
+// the context of the message it received again, and each role records spans for the time a message waited
+// in the queues and the time it was handled. Without -Dconferencerent.tracing.file no trace is started and
+// no span is recorded, contexts received from other processes are still passed on.
+public final class Tracing {
+    // -Dconferencerent.tracing.file, file the spans of this process are appended to, unset disables tracing
+    public static final String FILE_PROPERTY = "conferencerent.tracing.file";
+
+    // wall clock time at System.nanoTime() 0, timestamps of different processes are as close as their clocks
+    private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+    private static final SpanExporter EXPORTER = createExporter();
+
+    private Tracing() {
+    }
+
+    private static SpanExporter createExporter() {
+        String file = System.getProperty(FILE_PROPERTY);
+        return file == null || file.isEmpty() ? null : new SpanExporter(Path.of(file));
+    }
+
+    public static boolean isEnabled() {
+        return EXPORTER != null;
+    }
+
+    // Microseconds since the epoch, with the resolution of System.nanoTime()
+    public static long nowMicros() {
+        return (System.nanoTime() + EPOCH_OFFSET_NANOS) / 1_000;
+    }
+
+    // The context of a new request, null if tracing is disabled
+    public static TraceContext startTrace() {
+        if (EXPORTER == null)
+            return null;
+
+        return new TraceContext(ThreadLocalRandom.current().nextLong(), ThreadLocalRandom.current().nextLong(), nowMicros());
+    }
+
+    // The context to publish a message with that continues the trace of a received one, null if there is none
+    public static TraceContext next(TraceContext received) {
+        if (received == null)
+            return null;
+
+        return new TraceContext(received.getTraceId(), ThreadLocalRandom.current().nextLong(), nowMicros());
+    }
+
+    // Records the time since the message with the context was published, the time it spent in queues
+    public static void received(TraceContext trace, String hop) {
+        if (trace != null)
+            span(trace, hop, trace.getSentAtMicros(), nowMicros());
+    }
+
+    public static void span(TraceContext trace, String hop, long startMicros, long endMicros) {
+        if (EXPORTER != null && trace != null)
+            EXPORTER.export(trace.getTraceId(), trace.getSpanId(), hop, startMicros, endMicros - startMicros);
+    }
+}
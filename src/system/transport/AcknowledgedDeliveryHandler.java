@@ -0,0 +1,10 @@
+package system.transport;
+
+import java.io.IOException;
+
+// Callback for messages that count against the prefetch of the consumer until the acknowledgement is run,
+// which may happen on another thread once the message is handled
+@FunctionalInterface
+public interface AcknowledgedDeliveryHandler {
+    void handle(MessageProperties properties, byte[] body, Runnable acknowledge) throws IOException;
+}
@@ -0,0 +1,237 @@
+package system.transport;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Publishes on a pool of channels with publisher confirms. Every channel has a bounded buffer of outgoing messages
+// and a sender thread that publishes them in batches, publish() blocks while the buffer is full.
+// A channel stops taking messages from its buffer while too many are unconfirmed, so a slow broker slows down the publishers.
+// Messages with the same exchange and routing key go through the same channel and keep their order,
+// except for messages the broker nacks or that could not be published, which are published again.
+// A channel that was closed, for example by the broker, is replaced by a new one.
+class AmqpPublisher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(AmqpPublisher.class);
+    // how long close() waits for the confirms of the messages published so far
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+    // how long a lane waits before it tries again to open a channel
+    private static final long RECOVERY_BACKOFF_MILLIS = 1_000;
+
+    private final Lane[] lanes;
+    private final int batchSize;
+
+    AmqpPublisher(Connection connection, int channelCount, int bufferSize, int batchSize, int maxUnconfirmed) throws IOException {
+        this.batchSize = batchSize;
+        this.lanes = new Lane[channelCount];
+        for (int i = 0; i < channelCount; i++)
+            lanes[i] = new Lane(connection, bufferSize, maxUnconfirmed, "amqp-publisher-" + i);
+    }
+
+    void publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) throws IOException {
+        int hash = Objects.hashCode(exchange) * 31 + Objects.hashCode(routingKey);
+        Lane lane = lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+        if (lane.closed)
+            throw new IOException("The publisher is closed");
+
+        try {
+            lane.buffer.put(new Outgoing(exchange, routingKey, properties, body));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for space in the publish buffer");
+        }
+    }
+
+    // Publishes the buffered messages and waits a while until the broker has confirmed all of them
+    @Override
+    public void close() throws IOException {
+        for (Lane lane : lanes)
+            lane.closed = true;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+        for (Lane lane : lanes) {
+            try {
+                lane.sender.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                if (lane.sender.isAlive()) {
+                    LOG.warn("{} messages of {} were not confirmed before closing", lane.unconfirmed.size(), lane.sender.getName());
+                    lane.sender.interrupt();
+                }
+                if (lane.channel.isOpen())
+                    lane.channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (TimeoutException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static class Outgoing {
+        private final String exchange;
+        private final String routingKey;
+        private final AMQP.BasicProperties properties;
+        private final byte[] body;
+
+        private Outgoing(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+
+    // One channel with its buffer, sender thread and unconfirmed messages
+    private class Lane implements Runnable {
+        private final Connection connection;
+        private final BlockingQueue<Outgoing> buffer;
+        private final Semaphore confirmWindow;
+        // nacked messages and messages of a failed publish, published again before the buffer
+        private final Queue<Outgoing> nacked = new ConcurrentLinkedQueue<>();
+        private final Thread sender;
+        // replaced together when the channel is lost, the sequence numbers of a new channel start over
+        private volatile Channel channel;
+        // publish sequence number -> message the broker has not confirmed yet
+        private volatile ConcurrentSkipListMap<Long, Outgoing> unconfirmed;
+        private volatile boolean closed;
+
+        private Lane(Connection connection, int bufferSize, int maxUnconfirmed, String name) throws IOException {
+            this.connection = connection;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+            this.confirmWindow = new Semaphore(maxUnconfirmed);
+            openChannel();
+
+            this.sender = new Thread(this, name);
+            sender.setDaemon(true);
+            sender.start();
+        }
+
+        private void openChannel() throws IOException {
+            Channel opened = connection.createChannel();
+            ConcurrentSkipListMap<Long, Outgoing> pending = new ConcurrentSkipListMap<>();
+            opened.confirmSelect();
+            // confirms arrive on the thread of the connection, they must not block
+            opened.addConfirmListener((sequence, multiple) -> settle(pending, sequence, multiple, false),
+                    (sequence, multiple) -> settle(pending, sequence, multiple, true));
+
+            this.unconfirmed = pending;
+            this.channel = opened;
+        }
+
+        @Override
+        public void run() {
+            List<Outgoing> batch = new ArrayList<>(batchSize);
+
+            // after closing, the sender runs until the last message is confirmed, since it has to publish nacked messages again
+            while (!closed || !buffer.isEmpty() || !nacked.isEmpty() || !unconfirmed.isEmpty()) {
+                try {
+                    if (!channel.isOpen())
+                        recover();
+
+                    Outgoing retry;
+                    while (batch.size() < batchSize && (retry = nacked.poll()) != null)
+                        batch.add(retry);
+
+                    // waits for the first message, then takes whatever else is buffered without waiting
+                    if (batch.isEmpty()) {
+                        Outgoing first = buffer.poll(50, TimeUnit.MILLISECONDS);
+                        if (first == null)
+                            continue;
+                        batch.add(first);
+                    }
+                    buffer.drainTo(batch, batchSize - batch.size());
+
+                    publishBatch(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    LOG.error("Reopening the channel of {} failed, retrying", sender.getName(), e);
+                    try {
+                        Thread.sleep(RECOVERY_BACKOFF_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        // A message that cannot be published gives back its place in the confirm window and goes back to the
+        // retry queue with the rest of the batch
+        private void publishBatch(List<Outgoing> batch) throws InterruptedException {
+            for (int i = 0; i < batch.size(); i++) {
+                Outgoing message = batch.get(i);
+                confirmWindow.acquire();
+                long sequence = channel.getNextPublishSeqNo();
+                unconfirmed.put(sequence, message);
+                try {
+                    channel.basicPublish(message.exchange, message.routingKey, message.properties, message.body);
+                } catch (IOException | RuntimeException e) {
+                    if (unconfirmed.remove(sequence) != null)
+                        confirmWindow.release();
+                    nacked.addAll(batch.subList(i, batch.size()));
+
+                    LOG.error("Publishing on {} failed, {} messages will be published again", sender.getName(), batch.size() - i, e);
+                    return;
+                }
+            }
+        }
+
+        // Opens a new channel and publishes the messages the lost one never confirmed again
+        private void recover() throws IOException {
+            ConcurrentSkipListMap<Long, Outgoing> lost = unconfirmed;
+            openChannel();
+
+            int requeued = 0;
+            for (Long sequence : lost.keySet()) {
+                Outgoing message = lost.remove(sequence);
+                if (message != null) {
+                    confirmWindow.release();
+                    nacked.add(message);
+                    requeued++;
+                }
+            }
+
+            LOG.warn("Reopened the channel of {}, {} unconfirmed messages will be published again", sender.getName(), requeued);
+        }
+
+        private void settle(ConcurrentSkipListMap<Long, Outgoing> pending, long sequence, boolean multiple, boolean nack) {
+            if (multiple) {
+                ConcurrentNavigableMap<Long, Outgoing> settled = pending.headMap(sequence, true);
+                for (Map.Entry<Long, Outgoing> entry : settled.entrySet()) {
+                    if (settled.remove(entry.getKey()) != null)
+                        settle(entry.getValue(), nack);
+                }
+            } else {
+                Outgoing message = pending.remove(sequence);
+                if (message != null)
+                    settle(message, nack);
+            }
+        }
+
+        private void settle(Outgoing message, boolean nack) {
+            confirmWindow.release();
+            if (nack)
+                nacked.add(message);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package system.transport;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import system.tracing.TraceContext;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+// Transport backed by a RabbitMQ broker, one connection and one channel per instance,
+// plus the channels of the publisher if publishing through one is configured
+public class AmqpTransport implements Transport {
+    private static final Logger LOG = LoggerFactory.getLogger(AmqpTransport.class);
+    // -Dconferencerent.amqp.publishChannels, channels of the batched publisher with confirms, 0 publishes synchronously on the one channel
+    private static final String PUBLISH_CHANNELS_PROPERTY = "conferencerent.amqp.publishChannels";
+    // -Dconferencerent.amqp.publishBuffer, messages waiting per publisher channel before publishing blocks
+    private static final String PUBLISH_BUFFER_PROPERTY = "conferencerent.amqp.publishBuffer";
+    // -Dconferencerent.amqp.publishBatch, messages a publisher channel sends in one go
+    private static final String PUBLISH_BATCH_PROPERTY = "conferencerent.amqp.publishBatch";
+    // -Dconferencerent.amqp.maxUnconfirmed, messages per publisher channel the broker has not confirmed yet before it waits
+    private static final String MAX_UNCONFIRMED_PROPERTY = "conferencerent.amqp.maxUnconfirmed";
+
+    private final Connection connection;
+    private final Channel channel;
+    // null if messages are published on the channel
+    private final AmqpPublisher publisher;
+
+    public AmqpTransport() throws IOException, TimeoutException {
+        this(new ConnectionFactory());
+    }
+
+    public AmqpTransport(ConnectionFactory factory) throws IOException, TimeoutException {
+        this.connection = factory.newConnection();
+        this.channel = connection.createChannel();
+
+        int publishChannels = Integer.getInteger(PUBLISH_CHANNELS_PROPERTY, 0);
+        this.publisher = publishChannels <= 0 ? null : new AmqpPublisher(connection, publishChannels,
+                Integer.getInteger(PUBLISH_BUFFER_PROPERTY, 4096),
+                Integer.getInteger(PUBLISH_BATCH_PROPERTY, 256),
+                Integer.getInteger(MAX_UNCONFIRMED_PROPERTY, 1024));
+    }
+
+    @Override
+    public void exchangeDeclare(String exchange, ExchangeType type) throws IOException {
+        channel.exchangeDeclare(exchange, type.getAmqpName());
+    }
+
+    @Override
+    public void queueDeclare(String queue) throws IOException {
+        channel.queueDeclare(queue, false, false, false, null);
+    }
+
+    @Override
+    public void queueDeclareTemporary(String queue) throws IOException {
+        // exclusive and auto-deleted, the broker removes it when the connection closes
+        channel.queueDeclare(queue, false, true, true, null);
+    }
+
+    @Override
+    public void queueBind(String queue, String exchange, String routingKey) throws IOException {
+        channel.queueBind(queue, exchange, routingKey);
+    }
+
+    @Override
+    public void publish(String exchange, String routingKey, MessageProperties properties, byte[] body) throws IOException {
+        AMQP.BasicProperties basicProperties = null;
+        if (properties.getCorrelationId() != null || properties.getReplyTo() != null || properties.getTrace() != null) {
+            basicProperties = new AMQP.BasicProperties.Builder()
+                    .correlationId(properties.getCorrelationId())
+                    .replyTo(properties.getReplyTo())
+                    .headers(properties.getTrace() == null ? null : Map.of(TraceContext.HEADER, properties.getTrace().toHeader()))
+                    .build();
+        }
+
+        if (publisher != null)
+            publisher.publish(exchange, routingKey, basicProperties, body);
+        else
+            publishOnChannel(exchange, routingKey, basicProperties, body);
+    }
+
+    // Channels must not be used for publishing by several threads at once
+    private synchronized void publishOnChannel(String exchange, String routingKey, AMQP.BasicProperties basicProperties, byte[] body) throws IOException {
+        channel.basicPublish(exchange, routingKey, basicProperties, body);
+    }
+
+    @Override
+    public void consume(String queue, DeliveryHandler handler) throws IOException {
+        DeliverCallback deliverCallback = (consumerTag, delivery) -> handler.handle(propertiesOf(delivery), delivery.getBody());
+
+        channel.basicConsume(queue, true, deliverCallback, consumerTag -> LOG.warn("Consumer of queue {} was cancelled for some reason.", queue));
+    }
+
+    @Override
+    public void consume(String queue, int prefetch, AcknowledgedDeliveryHandler handler) throws IOException {
+        DeliverCallback deliverCallback = (consumerTag, delivery) -> {
+            long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+            handler.handle(propertiesOf(delivery), delivery.getBody(), () -> acknowledge(deliveryTag));
+        };
+
+        // the limit applies to every consumer started on the channel from now on
+        channel.basicQos(prefetch);
+        channel.basicConsume(queue, false, deliverCallback, consumerTag -> LOG.warn("Consumer of queue {} was cancelled for some reason.", queue));
+    }
+
+    // Acknowledgements come from the threads that handled the messages, they share the channel with the publishers
+    private synchronized void acknowledge(long deliveryTag) {
+        try {
+            channel.basicAck(deliveryTag, false);
+        } catch (IOException e) {
+            LOG.error("Acknowledging delivery {} failed", deliveryTag, e);
+        }
+    }
+
+    private static MessageProperties propertiesOf(Delivery delivery) {
+        AMQP.BasicProperties basicProperties = delivery.getProperties();
+        if (basicProperties == null)
+            return MessageProperties.EMPTY;
+
+        Map<String, Object> headers = basicProperties.getHeaders();
+        return new MessageProperties(basicProperties.getCorrelationId(), basicProperties.getReplyTo(),
+                headers == null ? null : TraceContext.fromHeader(headers.get(TraceContext.HEADER)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (publisher != null)
+                publisher.close();
+            channel.close();
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package system.transport;
+
+import java.io.IOException;
+
+// Callback invoked for every message consumed from a queue
+@FunctionalInterface
+public interface DeliveryHandler {
+    void handle(MessageProperties properties, byte[] body) throws IOException;
+}
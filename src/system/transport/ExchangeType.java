@@ -0,0 +1,17 @@
+package system.transport;
+
+public enum ExchangeType {
+    DIRECT("direct"),
+    FANOUT("fanout");
+
+    private final String amqpName;
+
+    ExchangeType(String amqpName) {
+        this.amqpName = amqpName;
+    }
+
+    // Name of the exchange type as understood by the broker
+    public String getAmqpName() {
+        return amqpName;
+    }
+}
@@ -0,0 +1,173 @@
+package system.transport;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Exchanges, bindings and queues shared by every InMemoryTransport of one JVM.
+// Routing follows the AMQP rules the roles rely on: direct exchanges match the routing key exactly,
+// fanout exchanges copy the message to every bound queue and unroutable messages are dropped.
+public class InMemoryBroker {
+    private static final InMemoryBroker DEFAULT = new InMemoryBroker();
+
+    private final ConcurrentHashMap<String, Exchange> exchanges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MessageQueue> queues = new ConcurrentHashMap<>();
+
+    // The broker used by transports created through Transports.create()
+    public static InMemoryBroker getDefault() {
+        return DEFAULT;
+    }
+
+    void exchangeDeclare(String name, ExchangeType type) throws IOException {
+        Exchange exchange = exchanges.computeIfAbsent(name, n -> new Exchange(type));
+
+        if (exchange.type != type)
+            throw new IOException("Exchange " + name + " is already declared as " + exchange.type);
+    }
+
+    MessageQueue queueDeclare(String name) {
+        return queues.computeIfAbsent(name, MessageQueue::new);
+    }
+
+    // Removes the queue, its bindings and the messages still in it
+    void queueDelete(String name) {
+        MessageQueue queue = queues.remove(name);
+        if (queue == null)
+            return;
+
+        for (Exchange exchange : exchanges.values())
+            exchange.unbind(queue);
+        queue.messages.clear();
+    }
+
+    void queueBind(String queueName, String exchangeName, String routingKey) throws IOException {
+        Exchange exchange = exchanges.get(exchangeName);
+        MessageQueue queue = queues.get(queueName);
+
+        if (exchange == null)
+            throw new IOException("No exchange " + exchangeName);
+        if (queue == null)
+            throw new IOException("No queue " + queueName);
+
+        exchange.bind(queue, routingKey);
+    }
+
+    void publish(String exchangeName, String routingKey, Message message) throws IOException {
+        // The default exchange routes to the queue with the same name as the routing key
+        if (exchangeName.isEmpty()) {
+            MessageQueue queue = queues.get(routingKey);
+            if (queue != null)
+                queue.enqueue(message);
+            return;
+        }
+
+        Exchange exchange = exchanges.get(exchangeName);
+        if (exchange == null)
+            throw new IOException("No exchange " + exchangeName);
+
+        exchange.route(routingKey, message);
+    }
+
+    MessageQueue getQueue(String name) throws IOException {
+        MessageQueue queue = queues.get(name);
+        if (queue == null)
+            throw new IOException("No queue " + name);
+
+        return queue;
+    }
+
+    private static class Exchange {
+        private final ExchangeType type;
+        // routing key -> queues bound with that key
+        private final ConcurrentHashMap<String, Set<MessageQueue>> bindings = new ConcurrentHashMap<>();
+        // every bound queue, used for fanout routing
+        private final Set<MessageQueue> boundQueues = ConcurrentHashMap.newKeySet();
+
+        private Exchange(ExchangeType type) {
+            this.type = type;
+        }
+
+        private void bind(MessageQueue queue, String routingKey) {
+            // compute, so that an unbind never drops the set of a key while a queue is added to it
+            bindings.compute(routingKey, (key, queues) -> {
+                Set<MessageQueue> bound = queues != null ? queues : ConcurrentHashMap.newKeySet();
+                bound.add(queue);
+                return bound;
+            });
+            boundQueues.add(queue);
+        }
+
+        private void unbind(MessageQueue queue) {
+            if (!boundQueues.remove(queue))
+                return;
+
+            for (String routingKey : bindings.keySet()) {
+                bindings.computeIfPresent(routingKey, (key, queues) -> {
+                    queues.remove(queue);
+                    return queues.isEmpty() ? null : queues;
+                });
+            }
+        }
+
+        private void route(String routingKey, Message message) {
+            Set<MessageQueue> targets = type == ExchangeType.FANOUT ? boundQueues : bindings.get(routingKey);
+            if (targets == null)
+                return;
+
+            for (MessageQueue queue : targets)
+                queue.enqueue(message);
+        }
+    }
+
+    // Body and properties travel together, the body array is shared by all queues a message is routed to
+    static class Message {
+        final MessageProperties properties;
+        final byte[] body;
+
+        Message(MessageProperties properties, byte[] body) {
+            this.properties = properties;
+            this.body = body;
+        }
+    }
+
+    static class MessageQueue {
+        private final String name;
+        private final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<>();
+        // consumers compete for the messages of the queue
+        private final CopyOnWriteArrayList<InMemoryTransport.Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+        private MessageQueue(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        Message poll() {
+            return messages.poll();
+        }
+
+        boolean isEmpty() {
+            return messages.isEmpty();
+        }
+
+        void subscribe(InMemoryTransport.Subscription subscription) {
+            subscriptions.add(subscription);
+            if (!messages.isEmpty())
+                subscription.schedule();
+        }
+
+        void unsubscribe(InMemoryTransport.Subscription subscription) {
+            subscriptions.remove(subscription);
+        }
+
+        private void enqueue(Message message) {
+            messages.offer(message);
+            for (InMemoryTransport.Subscription subscription : subscriptions)
+                subscription.schedule();
+        }
+    }
+}
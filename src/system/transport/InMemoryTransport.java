@@ -0,0 +1,130 @@
+package system.transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Transport for roles that run in the same JVM, messages never leave the process.
+// Like an AMQP channel, all consumers of one transport are served by a single dispatcher thread,
+// so the handlers of one role never run concurrently.
+public class InMemoryTransport implements Transport {
+    private static final Logger LOG = LoggerFactory.getLogger(InMemoryTransport.class);
+    // Upper bound of messages taken from one queue before the dispatcher moves on to the next one
+    private static final int DISPATCH_BATCH = 64;
+
+    private final InMemoryBroker broker;
+    private final Thread dispatcher;
+    // subscriptions that have messages waiting, each one is present at most once
+    private final ConcurrentLinkedQueue<Subscription> ready = new ConcurrentLinkedQueue<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    // deleted from the broker when the transport closes, like the exclusive, auto-deleted queues of AMQP
+    private final List<String> temporaryQueues = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public InMemoryTransport(InMemoryBroker broker) {
+        this.broker = broker;
+        this.dispatcher = new Thread(this::dispatchLoop, "in-memory-dispatcher");
+        this.dispatcher.start();
+    }
+
+    @Override
+    public void exchangeDeclare(String exchange, ExchangeType type) throws IOException {
+        broker.exchangeDeclare(exchange, type);
+    }
+
+    @Override
+    public void queueDeclare(String queue) {
+        broker.queueDeclare(queue);
+    }
+
+    @Override
+    public void queueDeclareTemporary(String queue) {
+        broker.queueDeclare(queue);
+        temporaryQueues.add(queue);
+    }
+
+    @Override
+    public void queueBind(String queue, String exchange, String routingKey) throws IOException {
+        broker.queueBind(queue, exchange, routingKey);
+    }
+
+    @Override
+    public void publish(String exchange, String routingKey, MessageProperties properties, byte[] body) throws IOException {
+        broker.publish(exchange, routingKey, new InMemoryBroker.Message(properties, body));
+    }
+
+    @Override
+    public void consume(String queue, DeliveryHandler handler) throws IOException {
+        Subscription subscription = new Subscription(broker.getQueue(queue), handler);
+        subscriptions.add(subscription);
+        subscription.queue.subscribe(subscription);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Subscription subscription : subscriptions)
+            subscription.queue.unsubscribe(subscription);
+        for (String queue : temporaryQueues)
+            broker.queueDelete(queue);
+
+        LockSupport.unpark(dispatcher);
+    }
+
+    private void dispatchLoop() {
+        while (!closed) {
+            Subscription subscription = ready.poll();
+            if (subscription == null) {
+                // a publish that happens after the poll unparks us, so no wakeup can be lost
+                LockSupport.park(this);
+                continue;
+            }
+
+            subscription.drain();
+        }
+    }
+
+    class Subscription {
+        private final InMemoryBroker.MessageQueue queue;
+        private final DeliveryHandler handler;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Subscription(InMemoryBroker.MessageQueue queue, DeliveryHandler handler) {
+            this.queue = queue;
+            this.handler = handler;
+        }
+
+        // Called by publishers, hands the subscription to the dispatcher unless it is already waiting there
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                ready.offer(this);
+                LockSupport.unpark(dispatcher);
+            }
+        }
+
+        private void drain() {
+            // cleared before polling, a message that arrives while draining schedules us again
+            scheduled.set(false);
+
+            InMemoryBroker.Message message;
+            int handled = 0;
+            while (handled < DISPATCH_BATCH && (message = queue.poll()) != null) {
+                try {
+                    handler.handle(message.properties, message.body);
+                } catch (Exception e) {
+                    LOG.error("Handling a message of queue {} failed", queue.getName(), e);
+                }
+                handled++;
+            }
+
+            if (!queue.isEmpty())
+                schedule();
+        }
+    }
+}
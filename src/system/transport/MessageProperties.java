@@ -0,0 +1,41 @@
+package system.transport;
+
+import system.tracing.TraceContext;
+
+// Metadata sent next to a message body, mapped to the AMQP basic properties of the same name
+public class MessageProperties {
+    public static final MessageProperties EMPTY = new MessageProperties(null, null);
+
+    // identifies the request a response belongs to
+    private final String correlationId;
+    // routing key the response to a request should be sent with
+    private final String replyTo;
+    // the trace the message belongs to, null if it is not traced
+    private final TraceContext trace;
+
+    public MessageProperties(String correlationId, String replyTo) {
+        this(correlationId, replyTo, null);
+    }
+
+    public MessageProperties(String correlationId, String replyTo, TraceContext trace) {
+        this.correlationId = correlationId;
+        this.replyTo = replyTo;
+        this.trace = trace;
+    }
+
+    public MessageProperties withTrace(TraceContext trace) {
+        return new MessageProperties(correlationId, replyTo, trace);
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public String getReplyTo() {
+        return replyTo;
+    }
+
+    public TraceContext getTrace() {
+        return trace;
+    }
+}
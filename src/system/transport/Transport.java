@@ -0,0 +1,37 @@
+package system.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Messaging operations used by the Agent, Building and Customer.
+// Implementations decide whether messages go through a broker or stay inside the JVM.
+public interface Transport extends Closeable {
+
+    void exchangeDeclare(String exchange, ExchangeType type) throws IOException;
+
+    // Declares a non-durable, non-exclusive queue that is not auto-deleted
+    void queueDeclare(String queue) throws IOException;
+
+    // Declares a queue that only lives as long as this transport, for queues that belong to a single process
+    default void queueDeclareTemporary(String queue) throws IOException {
+        queueDeclare(queue);
+    }
+
+    void queueBind(String queue, String exchange, String routingKey) throws IOException;
+
+    // An empty exchange name publishes straight to the queue named by the routing key
+    void publish(String exchange, String routingKey, MessageProperties properties, byte[] body) throws IOException;
+
+    default void publish(String exchange, String routingKey, byte[] body) throws IOException {
+        publish(exchange, routingKey, MessageProperties.EMPTY, body);
+    }
+
+    // Messages are acknowledged automatically once they are handed to the handler
+    void consume(String queue, DeliveryHandler handler) throws IOException;
+
+    // Consumes with manual acknowledgements, at most prefetch messages are handed out before they are acknowledged.
+    // Transports without acknowledgements hand out every message right away and ignore the acknowledgement.
+    default void consume(String queue, int prefetch, AcknowledgedDeliveryHandler handler) throws IOException {
+        consume(queue, (properties, body) -> handler.handle(properties, body, () -> { }));
+    }
+}
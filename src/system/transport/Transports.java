@@ -0,0 +1,37 @@
+package system.transport;
+
+import com.rabbitmq.client.ConnectionFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+
+public final class Transports {
+    // -Dconferencerent.transport=amqp (default) or memory
+    public static final String TRANSPORT_PROPERTY = "conferencerent.transport";
+
+    private Transports() {
+    }
+
+    // Creates the transport selected by the system properties
+    public static Transport create() throws IOException, TimeoutException {
+        String kind = System.getProperty(TRANSPORT_PROPERTY, "amqp");
+
+        return switch (kind) {
+            case "amqp" -> new AmqpTransport();
+            case "memory" -> new InMemoryTransport(InMemoryBroker.getDefault());
+            default -> throw new IllegalArgumentException("Unknown transport: " + kind);
+        };
+    }
+
+    // Like create(), but the deliveries of an AMQP connection run on the given threads, which several
+    // connections can share. In-memory transports keep their own dispatcher thread.
+    public static Transport create(ExecutorService consumerThreads) throws IOException, TimeoutException {
+        if (!System.getProperty(TRANSPORT_PROPERTY, "amqp").equals("amqp"))
+            return create();
+
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setSharedExecutor(consumerThreads);
+        return new AmqpTransport(factory);
+    }
+}
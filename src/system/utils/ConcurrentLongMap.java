@@ -0,0 +1,70 @@
+package system.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Thread-safe LongMap striped over segments, each guarded by its own lock, so threads working with different keys
+// rarely wait for each other. Values must not be null.
+public class ConcurrentLongMap<V> {
+    private static final int SEGMENTS = 64;
+
+    private final LongMap<V>[] segments;
+
+    public ConcurrentLongMap() {
+        @SuppressWarnings("unchecked")
+        LongMap<V>[] segments = (LongMap<V>[]) new LongMap<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new LongMap<>();
+        this.segments = segments;
+    }
+
+    private LongMap<V> segmentOf(long key) {
+        // spread differently from the table of the segment, or all keys of a segment would crowd the same slots
+        int hash = Long.hashCode(key) * 0x9E3779B9;
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    public V get(long key) {
+        LongMap<V> segment = segmentOf(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    public V put(long key, V value) {
+        LongMap<V> segment = segmentOf(key);
+        synchronized (segment) {
+            return segment.put(key, value);
+        }
+    }
+
+    public V remove(long key) {
+        LongMap<V> segment = segmentOf(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongMap<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    // A copy of the values, consistent per segment
+    public List<V> values() {
+        List<V> copy = new ArrayList<>();
+        for (LongMap<V> segment : segments) {
+            synchronized (segment) {
+                segment.forEachValue(copy::add);
+            }
+        }
+
+        return copy;
+    }
+}
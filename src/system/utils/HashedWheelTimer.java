@@ -0,0 +1,194 @@
+package system.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Timer for large numbers of timeouts that are usually cancelled before they fire.
+// Timeouts are hashed into a ring of buckets by their deadline, so scheduling and cancelling are O(1)
+// and every tick only looks at one bucket. Deadlines are rounded up to the next tick.
+// Tasks run on the single timer thread and should be short.
+public class HashedWheelTimer {
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelTimer.class);
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    // handed over from the scheduling threads to the timer thread
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startTime;
+    private volatile boolean stopped;
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (ticksPerWheel <= 0 || Integer.bitCount(ticksPerWheel) != 1)
+            throw new IllegalArgumentException("ticksPerWheel must be a power of two: " + ticksPerWheel);
+
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++)
+            wheel[i] = new Bucket();
+        this.mask = ticksPerWheel - 1;
+
+        this.startTime = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos;
+            while ((sleepNanos = deadline - (System.nanoTime() - startTime)) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (stopped)
+                        return;
+                }
+            }
+
+            removeCancelledTimeouts();
+            transferNewTimeouts(tick);
+            wheel[(int) (tick & mask)].expireTimeouts(deadline);
+            tick++;
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null)
+                timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void transferNewTimeouts(long currentTick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state.get() == Timeout.CANCELLED)
+                continue;
+
+            // timeouts that are already due go into the current bucket
+            long dueTick = Math.max(currentTick, (timeout.deadline + tickNanos - 1) / tickNanos - 1);
+            timeout.remainingRounds = (dueTick - currentTick) / wheel.length;
+            wheel[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    public class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        // nanoseconds since the timer was started
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // the fields below are only used by the timer thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        // Returns false if the task has already run or was cancelled before
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED))
+                return false;
+
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED))
+                return;
+
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOG.error("The task of a timeout failed", e);
+            }
+        }
+    }
+
+    // Doubly linked list of the timeouts hashed to one tick of the wheel
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expireTimeouts(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+
+                if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.bucket != this)
+                return;
+
+            if (timeout.previous != null)
+                timeout.previous.next = timeout.next;
+            else
+                head = timeout.next;
+
+            if (timeout.next != null)
+                timeout.next.previous = timeout.previous;
+            else
+                tail = timeout.previous;
+
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package system.utils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Time-ordered 64-bit IDs for rooms, reservations and the roles:
+//
+//   0 | 41 bits milliseconds since 2024-01-01 | 10 bits node | 12 bits sequence
+//
+// IDs made by one process only ever increase. A process that makes more than 4096 IDs in a millisecond runs ahead
+// of the clock for a moment, one whose clock steps back keeps counting from the last ID. On the wire IDs are
+// written in base 36, 12 or 13 characters. The node is -Dconferencerent.nodeId, random if it is not set.
+public final class Ids {
+    // -Dconferencerent.nodeId, 0 to 1023, processes with different nodes never make the same ID
+    public static final String NODE_PROPERTY = "conferencerent.nodeId";
+    // the ID of nothing, for example the reservation of a room booked by someone the building does not know
+    public static final long NONE = -1;
+
+    private static final long EPOCH_MILLIS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int RADIX = 36;
+    private static final int MAX_TEXT_LENGTH = 13;
+
+    private static final long NODE = node();
+    // milliseconds since the epoch and sequence of the last ID, as in the ID without the node
+    private static final AtomicLong last = new AtomicLong();
+
+    private Ids() {
+    }
+
+    // Lock-free, callers only retry when another thread made an ID at the same moment
+    public static long next() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long clock = last.accumulateAndGet(now, (previous, current) -> Math.max(previous + 1, current));
+
+        return (clock >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS) | NODE << SEQUENCE_BITS | (clock & SEQUENCE_MASK);
+    }
+
+    public static String nextText() {
+        return toText(next());
+    }
+
+    public static String toText(long id) {
+        return Long.toString(id, RADIX);
+    }
+
+    // The ID written as text, NONE for null or text that is not a base 36 ID. IDs of earlier versions,
+    // eight hexadecimal digits, are read as the base 36 number they also are.
+    public static long parse(String text) {
+        if (text == null || text.isEmpty() || text.length() > MAX_TEXT_LENGTH)
+            return NONE;
+
+        long id = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'z' ? c - 'a' + 10 : -1;
+            if (digit < 0 || id > (Long.MAX_VALUE - digit) / RADIX)
+                return NONE;
+
+            id = id * RADIX + digit;
+        }
+
+        return id;
+    }
+
+    // The millisecond an ID was made, for IDs made by this class
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    private static long node() {
+        Integer node = Integer.getInteger(NODE_PROPERTY);
+        if (node == null)
+            return new SecureRandom().nextInt(1 << NODE_BITS);
+        if (node < 0 || node >= 1 << NODE_BITS)
+            throw new IllegalArgumentException(NODE_PROPERTY + " must be between 0 and " + ((1 << NODE_BITS) - 1) + " but is " + node);
+
+        return node;
+    }
+}
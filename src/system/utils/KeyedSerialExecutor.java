@@ -0,0 +1,64 @@
+package system.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+// Runs tasks on an executor so that tasks with the same key run one after the other, in the order they were submitted,
+// while tasks with different keys run in parallel. Only keys with waiting or running tasks are kept.
+public class KeyedSerialExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+    private final Executor executor;
+    // key -> tasks of the key that have not run yet, the queue is removed once it runs empty
+    private final ConcurrentHashMap<Object, Queue<Runnable>> queues = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void execute(Object key, Runnable task) {
+        boolean[] first = new boolean[1];
+        // the queues are only changed inside compute, which locks the key
+        queues.compute(key, (k, tasks) -> {
+            if (tasks == null) {
+                tasks = new ArrayDeque<>();
+                first[0] = true;
+            }
+            tasks.add(task);
+            return tasks;
+        });
+
+        // a key that already had tasks is drained by the thread running them
+        if (first[0])
+            executor.execute(() -> drain(key, task));
+    }
+
+    // Runs the first task of the key and every task added behind it, the running task stays at the head of the queue
+    private void drain(Object key, Runnable first) {
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                LOG.error("A task of key {} failed", key, e);
+            }
+            task = next(key);
+        }
+    }
+
+    // Removes the task that has run and returns the one after it, or null after removing the empty queue
+    private Runnable next(Object key) {
+        Runnable[] next = new Runnable[1];
+        queues.computeIfPresent(key, (k, tasks) -> {
+            tasks.poll();
+            next[0] = tasks.peek();
+            return next[0] == null ? null : tasks;
+        });
+
+        return next[0];
+    }
+}
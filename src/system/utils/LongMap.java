@@ -0,0 +1,142 @@
+package system.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Map from primitive long keys to values, open addressing with linear probing so that lookups neither box the key
+// nor follow entry pointers. Values must not be null. Not thread-safe, see ConcurrentLongMap.
+public class LongMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    // a null value marks a free slot
+    private Object[] values;
+    // the table has 2^bits slots and is grown when it is 3/4 full
+    private int bits;
+    private int size;
+
+    public LongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        bits = Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // Fibonacci hashing, IDs that only differ in their low bits still spread over the table
+    private int slotOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                return (V) values[slot];
+        }
+
+        return null;
+    }
+
+    // Returns the value the key had before, null if it had none
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("LongMap values must not be null");
+
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length * 3 / 4)
+            resize();
+
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int slot = slotOf(key);
+        for (; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key)
+                break;
+        }
+        if (values[slot] == null)
+            return null;
+
+        V removed = (V) values[slot];
+        size--;
+
+        // moves the following entries of the run back, so that lookups never stop at the freed slot
+        int free = slot;
+        for (int next = (free + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = slotOf(keys[next]);
+            // the entry may move if its home slot is not between the free slot and where it is now
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        values[free] = null;
+
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object value : values) {
+            if (value != null)
+                action.accept((V) value);
+        }
+    }
+
+    public List<V> values() {
+        List<V> copy = new ArrayList<>(size);
+        forEachValue(copy::add);
+
+        return copy;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length * 2);
+
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+
+            int slot = slotOf(oldKeys[i]);
+            while (values[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -1,15 +1,62 @@
 package system.utils;
 
 public enum RequestType {
-    GET_BUILDINGS_LIST,
-    MAKE_BOOKING,
-    CONFIRM_BOOKING,
-    CANCEL_BOOKING,
-    INVALID_BOOKING_DETAILS,
-    INVALID_CONFIRMATION_DETAILS,
-    INVALID_CANCELLATION_DETAILS,
-    BUILDINGS_LIST,
-    BOOKING_MADE,
-    BOOKING_CONFIRMED,
-    BOOKING_CANCELLED
+    GET_BUILDINGS_LIST(1),
+    MAKE_BOOKING(2),
+    CONFIRM_BOOKING(3),
+    CANCEL_BOOKING(4),
+    INVALID_BOOKING_DETAILS(5),
+    INVALID_CONFIRMATION_DETAILS(6),
+    INVALID_CANCELLATION_DETAILS(7),
+    BUILDINGS_LIST(8),
+    BOOKING_MADE(9),
+    BOOKING_CONFIRMED(10),
+    BOOKING_CANCELLED(11),
+    // sent by the agent when a building did not answer a forwarded request in time
+    REQUEST_TIMEOUT(12),
+    // sent by the building when a reservation was not confirmed within the hold time
+    HOLD_EXPIRED(13),
+    // a customer looking for rooms, answered by the agent from its own indexes, see AvailabilityQuery
+    AVAILABILITY_SEARCH(14),
+    // the rooms that matched an availability search, in the format of BUILDINGS_LIST
+    AVAILABLE_ROOMS(15),
+    // a page of a paged or streamed building list that is followed by more, the last page is a BUILDINGS_LIST
+    BUILDINGS_LIST_PAGE(16),
+    // the full state of a building with the sequence number of its last change, in the Building.toString() format
+    BUILDING_STATE(17),
+    // the rooms of a building that changed, with the sequence number of the change
+    BUILDING_DELTA(18),
+    // sent by an agent that missed a BUILDING_DELTA, the building answers with its BUILDING_STATE
+    BUILDING_STATE_REQUEST(19),
+    // a customer asking a building when it is free within the time range, or all time if it has none: with a room ID
+    // for the free parts of the range in that room, without one for the rooms that are free for all of it
+    FREE_TIME_QUERY(20),
+    // the answer to a FREE_TIME_QUERY, the free time ranges or room IDs as a list in the text
+    FREE_TIME(21);
+
+    private static final RequestType[] BY_OPCODE = new RequestType[256];
+
+    static {
+        for (RequestType type : values())
+            BY_OPCODE[type.opcode] = type;
+    }
+
+    // Stable one-byte code used on the wire, never reuse a code for a different type
+    private final int opcode;
+
+    RequestType(int opcode) {
+        this.opcode = opcode;
+    }
+
+    public byte getOpcode() {
+        return (byte) opcode;
+    }
+
+    public static RequestType fromOpcode(byte opcode) {
+        RequestType type = BY_OPCODE[opcode & 0xFF];
+        if (type == null)
+            throw new IllegalArgumentException("Unknown opcode: " + (opcode & 0xFF));
+
+        return type;
+    }
 }
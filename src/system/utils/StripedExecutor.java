@@ -0,0 +1,37 @@
+package system.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs tasks on a fixed number of single-threaded lanes. Tasks with the same key always run on the same lane,
+// one after the other in the order they were submitted, tasks with different keys may run in parallel.
+public class StripedExecutor {
+    private final ExecutorService[] lanes;
+
+    public StripedExecutor(String namePrefix, int laneCount) {
+        this.lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = namePrefix + "-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void execute(Object key, Runnable task) {
+        // spread the hash so that keys which only differ in the upper bits do not share a lane
+        int hash = key.hashCode() * 0x9E3779B9;
+        lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)].execute(task);
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public void shutdown() {
+        for (ExecutorService lane : lanes)
+            lane.shutdown();
+    }
+}
@@ -0,0 +1,38 @@
+package system.utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class Threads {
+
+    private Threads() {
+    }
+
+    // One virtual thread per task when the runtime supports them (Java 21+),
+    // otherwise a cached pool of daemon platform threads with the given name prefix.
+    // The sources target Java 17, so the virtual thread factory is looked up reflectively.
+    public static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package system.utils;
+
+import java.time.Instant;
+import java.util.Objects;
+
+// A half-open range of time [start, end) in epoch milliseconds.
+// A booking without a time range covers ALL of time, the way rooms were booked before they had calendars.
+public final class TimeRange {
+    public static final TimeRange ALL = new TimeRange(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final long start;
+    private final long end;
+
+    public TimeRange(long start, long end) {
+        if (end <= start)
+            throw new IllegalArgumentException("A time range must end after it starts: " + start + " - " + end);
+
+        this.start = start;
+        this.end = end;
+    }
+
+    public static TimeRange of(Instant start, Instant end) {
+        return new TimeRange(start.toEpochMilli(), end.toEpochMilli());
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public boolean isAll() {
+        return start == Long.MIN_VALUE && end == Long.MAX_VALUE;
+    }
+
+    public boolean overlaps(TimeRange other) {
+        return start < other.end && other.start < end;
+    }
+
+    public boolean contains(long time) {
+        return start <= time && time < end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TimeRange)) return false;
+        TimeRange timeRange = (TimeRange) o;
+        return start == timeRange.start && end == timeRange.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (isAll())
+            return "all time";
+
+        return Instant.ofEpochMilli(start) + " - " + Instant.ofEpochMilli(end);
+    }
+}
@@ -2,9 +2,12 @@ package system.utils;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import system.Building;
+import system.registry.BuildingSnapshot;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class Utility {
     // Method to convert a String to a Building object
@@ -18,69 +21,31 @@ public class Utility {
     }
 
     public static void printBuildingList(String response) {
-        // Remove the square brackets at the start and end
-        response = response.replaceFirst("\\[", "").replaceFirst("\\]$", "");
-
-        // Split the response string by "}, Building{" to separate each building
-        String[] buildings = response.split("\\}, Building\\{");
-
-        // Iterate over each building
-        for (String building : buildings) {
-            // Add back the removed characters for proper processing
-            building = "Building{" + building.trim();
-
-            // Extract the building ID
-            String buildingID = building.substring(building.indexOf("buildingID='") + 12, building.indexOf("', rooms="));
-            System.out.println("Building ID: " + buildingID);
-
-            // Extract the rooms part of the string
-            String roomsString = building.substring(building.indexOf("rooms=[") + 7, building.lastIndexOf("]"));
-            String[] rooms = roomsString.split("Room\\{");
+        // Parse the response in one pass instead of splitting it up, a page of the list may be empty
+        for (BuildingSnapshot building : parseBuildingList(response)) {
+            System.out.println("Building ID: " + building.getBuildingId());
 
             // Print room details
             System.out.println("  Rooms:");
-            for (String room : rooms) {
-                room = room.trim();
-                if (room.isEmpty()) continue; // Skip empty entries
-
-                // Extract room ID and booking status
-                String roomId = room.substring(room.indexOf("roomId='") + 8, room.indexOf("', isBooked="));
-                String isBooked = room.substring(room.indexOf("isBooked=") + 9, room.indexOf("}"));
-
-                // Print room details
-                System.out.println("    - Room ID: " + roomId + ", Booked: " + isBooked);
-            }
+            for (Map.Entry<String, Boolean> room : building.getRooms().entrySet())
+                System.out.println("    - Room ID: " + room.getKey() + ", Booked: " + room.getValue());
 
             System.out.println(); // Print an empty line between buildings
         }
     }
 
-    public static boolean validateBuildingNRoomIDs(String buildingID, String roomID, List<String> buildings) {
-        for (String s: buildings) {
-            if (s.contains(buildingID)) {
-                if (s.contains(roomID)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-
-    public static int getBuildingIndex(String message, List<String> buildings) {
-        int index = -1;
-
-        String buildingID = extractBuildingID(message);
+    // Parses a BUILDINGS_LIST response into one snapshot per building
+    public static List<BuildingSnapshot> parseBuildingList(String response) {
+        List<BuildingSnapshot> buildings = new ArrayList<>();
 
-        for (int i = 0; i < buildings.size(); i++) {
-            if (buildings.get(i).contains(buildingID)) {
-                index = i;
-                break;
-            }
+        int start = response.indexOf("Building{");
+        while (start != -1) {
+            int next = response.indexOf("Building{", start + 1);
+            buildings.add(BuildingSnapshot.parse(next == -1 ? response.substring(start) : response.substring(start, next)));
+            start = next;
         }
 
-        return index;
+        return buildings;
     }
 
     public static String extractBuildingID(String message) {
@@ -101,8 +66,8 @@ public class Utility {
     private static String preprocessInput(String input) {
         // Replace ' with " and adjust the format for JSON
         input = input.replace("'", "\""); // Convert single quotes to double quotes
-        input = input.replace("Building{", "{\"buildingID\":");
-        input = input.replace("Room{", "{\"roomId\":");
+        input = input.replace("Building{buildingID=", "{\"buildingID\":");
+        input = input.replace("Room{roomId=", "{\"roomId\":");
         input = input.replace("isBooked=", "\"isBooked\":");
         input = input.replace("rooms=", "\"rooms\":");
         input = input.replace("}, ", "},"); // Remove extra spaces after commas
@@ -0,0 +1,302 @@
+package system.wal;
+
+import system.utils.TimeRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Durable state of one building: a snapshot plus a write-ahead log of the changes made since.
+//
+//   <buildingId>.snapshot     generation of the log that continues it, followed by the records of the full state
+//   <buildingId>.<gen>.wal    state changes made after the snapshot
+//
+// Snapshots and log entries use the same records, so recovery replays both through one Visitor.
+public class BuildingStateStore implements Closeable {
+    // Receives the state of a building, one record at a time
+    public interface Visitor {
+        void room(String roomId, boolean booked);
+
+        // holdExpiresAt is the epoch millisecond when the hold lapses, 0 if it never does
+        void reserved(String reservationId, String roomId, String customerId, String agentId, long holdExpiresAt, TimeRange timeRange);
+
+        void confirmed(String reservationId);
+
+        void cancelled(String reservationId);
+
+        void expired(String reservationId);
+    }
+
+    private static final int SNAPSHOT_MAGIC = 0x43525331; // "CRS1"
+
+    private static final byte ROOM = 1;
+    private static final byte RESERVED = 2;
+    private static final byte CONFIRMED = 3;
+    private static final byte CANCELLED = 4;
+    private static final byte EXPIRED = 5;
+    // a reservation for part of the room's calendar rather than all time
+    private static final byte RESERVED_IN_RANGE = 6;
+
+    private final Path directory;
+    private final String buildingId;
+    private final int snapshotEvery;
+    private final int chunkSize;
+    private WriteAheadLog log;
+    private long generation;
+    private int recordsSinceSnapshot;
+    private boolean recovered;
+
+    private BuildingStateStore(Path directory, String buildingId, int snapshotEvery, int chunkSize) {
+        this.directory = directory;
+        this.buildingId = buildingId;
+        this.snapshotEvery = snapshotEvery;
+        this.chunkSize = chunkSize;
+    }
+
+    // Opens the state of the building in the directory and replays it, a snapshot is taken every snapshotEvery changes
+    public static BuildingStateStore open(Path directory, String buildingId, int snapshotEvery, Visitor replay) throws IOException {
+        return open(directory, buildingId, snapshotEvery, WriteAheadLog.DEFAULT_CHUNK_SIZE, replay);
+    }
+
+    public static BuildingStateStore open(Path directory, String buildingId, int snapshotEvery, int chunkSize, Visitor replay) throws IOException {
+        Files.createDirectories(directory);
+        BuildingStateStore store = new BuildingStateStore(directory, buildingId, snapshotEvery, chunkSize);
+        store.recover(replay);
+
+        return store;
+    }
+
+    private void recover(Visitor replay) throws IOException {
+        Path snapshot = snapshotFile();
+        if (Files.exists(snapshot)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot))) {
+                if (in.readInt() != SNAPSHOT_MAGIC)
+                    throw new IOException("Not a snapshot: " + snapshot);
+                generation = in.readLong();
+                byte[] records = new byte[in.readInt()];
+                int checksum = in.readInt();
+                in.readFully(records);
+                if (checksum(records) != checksum)
+                    throw new IOException("Corrupt snapshot: " + snapshot);
+                decode(ByteBuffer.wrap(records), replay);
+            }
+            recovered = true;
+        }
+
+        deleteLogsBefore(generation);
+        log = WriteAheadLog.open(logFile(generation), chunkSize, record -> {
+            decode(record, replay);
+            recordsSinceSnapshot++;
+            recovered = true;
+        });
+    }
+
+    // Whether a previous run of the building left any state behind
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    // Logs the changes written to the visitor, onDurable runs once they are on disk
+    public synchronized void append(Consumer<Visitor> changes, Runnable onDurable) throws IOException {
+        Encoder encoder = new Encoder();
+        changes.accept(encoder);
+        log.append(encoder.toByteArray(), onDurable);
+        recordsSinceSnapshot += encoder.count;
+    }
+
+    // Runs the callback once every change appended so far is on disk
+    public void whenDurable(Runnable callback) {
+        log.whenDurable(callback);
+    }
+
+    public synchronized boolean needsSnapshot() {
+        return recordsSinceSnapshot >= snapshotEvery;
+    }
+
+    // Replaces the snapshot with the full state written to the visitor and starts a new log.
+    // The state must include every change appended so far, durable or not.
+    public synchronized void snapshot(Consumer<Visitor> state) throws IOException {
+        Encoder encoder = new Encoder();
+        state.accept(encoder);
+        byte[] records = encoder.toByteArray();
+        long nextGeneration = generation + 1;
+
+        Path temporary = directory.resolve(buildingId + ".snapshot.tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(20 + records.length);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(nextGeneration).putInt(records.length).putInt(checksum(records)).put(records).flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        // once the new snapshot is in place the old log is no longer needed
+        Files.move(temporary, snapshotFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        WriteAheadLog previous = log;
+        log = WriteAheadLog.open(logFile(nextGeneration), chunkSize, record -> { });
+        // the rename and the new log must be on disk before the old logs are deleted, or a crash could leave neither
+        forceDirectory();
+        generation = nextGeneration;
+        recordsSinceSnapshot = 0;
+        // closing forces the records that are still pending and runs their callbacks
+        previous.close();
+        deleteLogsBefore(generation);
+    }
+
+    // Makes the entries of the directory durable. Not every platform can open a directory, there the rename has to do.
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (UnsupportedOperationException | AccessDeniedException e) {
+            // Windows
+        }
+    }
+
+    private void deleteLogsBefore(long generation) throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(directory, buildingId + ".*.wal")) {
+            for (Path file : logs) {
+                String name = file.getFileName().toString();
+                String logGeneration = name.substring(buildingId.length() + 1, name.length() - ".wal".length());
+                try {
+                    if (Long.parseLong(logGeneration) < generation)
+                        Files.delete(file);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+    }
+
+    private Path snapshotFile() {
+        return directory.resolve(buildingId + ".snapshot");
+    }
+
+    private Path logFile(long generation) {
+        return directory.resolve(buildingId + "." + generation + ".wal");
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void decode(ByteBuffer records, Visitor visitor) {
+        byte[] bytes = new byte[records.remaining()];
+        records.duplicate().get(bytes);
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            while (in.available() > 0) {
+                byte type = in.readByte();
+                switch (type) {
+                    case ROOM -> visitor.room(in.readUTF(), in.readBoolean());
+                    case RESERVED -> visitor.reserved(in.readUTF(), in.readUTF(), readOptional(in), readOptional(in), in.readLong(), TimeRange.ALL);
+                    case RESERVED_IN_RANGE -> visitor.reserved(in.readUTF(), in.readUTF(), readOptional(in), readOptional(in), in.readLong(),
+                            new TimeRange(in.readLong(), in.readLong()));
+                    case CONFIRMED -> visitor.confirmed(in.readUTF());
+                    case CANCELLED -> visitor.cancelled(in.readUTF());
+                    case EXPIRED -> visitor.expired(in.readUTF());
+                    default -> throw new IOException("Unknown record type " + type);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    // Turns visitor calls into records
+    private static class Encoder implements Visitor {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count;
+
+        @Override
+        public void room(String roomId, boolean booked) {
+            try {
+                out.writeByte(ROOM);
+                out.writeUTF(roomId);
+                out.writeBoolean(booked);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        @Override
+        public void reserved(String reservationId, String roomId, String customerId, String agentId, long holdExpiresAt, TimeRange timeRange) {
+            try {
+                out.writeByte(timeRange.isAll() ? RESERVED : RESERVED_IN_RANGE);
+                out.writeUTF(reservationId);
+                out.writeUTF(roomId);
+                writeOptional(customerId);
+                writeOptional(agentId);
+                out.writeLong(holdExpiresAt);
+                if (!timeRange.isAll()) {
+                    out.writeLong(timeRange.getStart());
+                    out.writeLong(timeRange.getEnd());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        @Override
+        public void confirmed(String reservationId) {
+            write(CONFIRMED, reservationId);
+        }
+
+        @Override
+        public void cancelled(String reservationId) {
+            write(CANCELLED, reservationId);
+        }
+
+        @Override
+        public void expired(String reservationId) {
+            write(EXPIRED, reservationId);
+        }
+
+        private void write(byte type, String reservationId) {
+            try {
+                out.writeByte(type);
+                out.writeUTF(reservationId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count++;
+        }
+
+        private void writeOptional(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null)
+                out.writeUTF(value);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package system.wal;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Threads that force the logs of the process to disk, shared by all logs so that a process hosting many buildings
+// does not run a flusher thread per building. A log is queued when it has records or callbacks waiting, and only
+// one thread works on a log at a time, so the batches of a log are forced and reported in order.
+class WalFlusher {
+    // -Dconferencerent.wal.flushers, threads forcing the logs of the process, several let slow disks sync in parallel
+    private static final String FLUSHERS_PROPERTY = "conferencerent.wal.flushers";
+
+    private static WalFlusher shared;
+
+    private final BlockingQueue<WriteAheadLog> queue = new LinkedBlockingQueue<>();
+
+    private WalFlusher(int threadCount) {
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::flushLoop, "wal-flusher-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static synchronized WalFlusher shared() {
+        if (shared == null)
+            shared = new WalFlusher(Math.max(1, Integer.getInteger(FLUSHERS_PROPERTY, 1)));
+
+        return shared;
+    }
+
+    // Called by the log when it has work and is not queued or being flushed already
+    void schedule(WriteAheadLog log) {
+        queue.add(log);
+    }
+
+    private void flushLoop() {
+        while (true) {
+            try {
+                queue.take().flush();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
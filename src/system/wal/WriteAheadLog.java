@@ -0,0 +1,243 @@
+package system.wal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only log of records in a memory-mapped file.
+// An append only copies the record into the mapping. A flusher thread, shared with the other logs of the process,
+// forces everything written so far to disk and then runs the callbacks of all records it covered, so one sync
+// commits a whole batch.
+//
+//   record: 4 byte payload length, 4 byte CRC32 of the payload, payload
+//   a length of 0 marks the end of the log, -1 the unused tail of a chunk
+//
+// The file is mapped in chunks. Recovery stops at the first record that is incomplete or fails its checksum and erases
+// everything after it, so records appended later can not be followed by intact records of the earlier run.
+public class WriteAheadLog implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int END_OF_CHUNK = -1;
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final WalFlusher flusher;
+    private final CRC32 crc = new CRC32();
+
+    // the fields below are guarded by this
+    private int chunkIndex;
+    private int position;
+    // start of the range that has been written but not forced yet
+    private int dirtyChunk;
+    private int dirtyPosition;
+    private List<Runnable> pendingCallbacks = new ArrayList<>();
+    // whether the log is queued at the flusher or a batch of it is being forced
+    private boolean scheduled;
+    private boolean closed;
+
+    private WriteAheadLog(FileChannel channel, int chunkSize, WalFlusher flusher) {
+        this.channel = channel;
+        this.chunkSize = chunkSize;
+        this.flusher = flusher;
+    }
+
+    // Opens or creates the log, hands every intact record to the replay consumer and positions the log after them
+    public static WriteAheadLog open(Path file, int chunkSize, Consumer<ByteBuffer> replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        WriteAheadLog log = new WriteAheadLog(channel, chunkSize, WalFlusher.shared());
+        log.recover(replay);
+
+        return log;
+    }
+
+    private void recover(Consumer<ByteBuffer> replay) throws IOException {
+        MappedByteBuffer chunk = chunk(0);
+
+        while (true) {
+            int length = position + HEADER_LENGTH <= chunkSize ? chunk.getInt(position) : END_OF_CHUNK;
+
+            if (length == END_OF_CHUNK) {
+                chunkIndex++;
+                position = 0;
+                chunk = chunk(chunkIndex);
+                continue;
+            }
+
+            if (length <= 0 || position + HEADER_LENGTH + length > chunkSize)
+                break;
+
+            ByteBuffer payload = chunk.slice(position + HEADER_LENGTH, length).asReadOnlyBuffer();
+            if (checksum(payload) != chunk.getInt(position + 4))
+                break;
+
+            replay.accept(payload);
+            position += HEADER_LENGTH + length;
+        }
+
+        // anything after the last intact record is garbage from an interrupted write, but it may contain whole records
+        // that were written after it. A new record shorter than the garbage would end right before them and let them be
+        // replayed by the next recovery, so the rest of the chunk and the chunks after it are erased before any append.
+        clear(chunk, position);
+        long end = (long) (chunkIndex + 1) * chunkSize;
+        if (channel.size() > end) {
+            channel.truncate(end);
+            channel.force(true);
+        }
+        dirtyChunk = chunkIndex;
+        dirtyPosition = position;
+    }
+
+    // Appends a record, the callback runs on the flusher thread once the record is on disk
+    public synchronized void append(byte[] payload, Runnable onDurable) throws IOException {
+        if (closed)
+            throw new IOException("The log is closed");
+        if (payload.length + HEADER_LENGTH > chunkSize)
+            throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit into a chunk");
+
+        MappedByteBuffer chunk = chunks.get(chunkIndex);
+        if (position + HEADER_LENGTH + payload.length > chunkSize) {
+            if (position + 4 <= chunkSize)
+                chunk.putInt(position, END_OF_CHUNK);
+            chunkIndex++;
+            position = 0;
+            chunk = chunk(chunkIndex);
+        }
+
+        chunk.put(position + HEADER_LENGTH, payload);
+        chunk.putInt(position + 4, checksum(ByteBuffer.wrap(payload)));
+        // the length is written last, a record without it is not part of the log
+        chunk.putInt(position, payload.length);
+        position += HEADER_LENGTH + payload.length;
+
+        pendingCallbacks.add(onDurable);
+        schedule();
+    }
+
+    // Runs the callback once everything appended so far is on disk, right away if it already is.
+    // Callbacks run in the order their records and calls were made.
+    public void whenDurable(Runnable callback) {
+        synchronized (this) {
+            if (scheduled) {
+                pendingCallbacks.add(callback);
+                return;
+            }
+        }
+
+        callback.run();
+    }
+
+    // called while holding the lock of the log
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            flusher.schedule(this);
+        }
+    }
+
+    // Forces one batch and runs its callbacks, called by the flusher
+    void flush() {
+        List<Runnable> callbacks;
+        int fromChunk;
+        int fromPosition;
+        int toChunk;
+        int toPosition;
+
+        synchronized (this) {
+            // appends made while this batch is forced go into the next batch
+            callbacks = pendingCallbacks;
+            pendingCallbacks = new ArrayList<>();
+            fromChunk = dirtyChunk;
+            fromPosition = dirtyPosition;
+            toChunk = chunkIndex;
+            toPosition = position;
+            dirtyChunk = chunkIndex;
+            dirtyPosition = position;
+        }
+
+        try {
+            for (int i = fromChunk; i <= toChunk; i++) {
+                int start = i == fromChunk ? fromPosition : 0;
+                int end = i == toChunk ? toPosition : chunkSize;
+                if (end > start)
+                    chunks.get(i).force(start, end - start);
+            }
+
+            for (Runnable callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    LOG.error("A callback of a log sync failed", e);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the records of the batch may not be on disk, so their callbacks must not run
+            LOG.error("Forcing the log failed, {} callbacks are dropped", callbacks.size(), e);
+        } finally {
+            synchronized (this) {
+                scheduled = false;
+                if (!pendingCallbacks.isEmpty())
+                    schedule();
+                notifyAll();
+            }
+        }
+    }
+
+    private MappedByteBuffer chunk(int index) throws IOException {
+        // chunks only grow, mapping a region extends the file
+        synchronized (chunks) {
+            while (chunks.size() <= index)
+                chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) chunks.size() * chunkSize, chunkSize));
+            return chunks.get(index);
+        }
+    }
+
+    // Zeroes the chunk from the given position on and forces it, only the bytes that are not zero yet are written
+    private static void clear(MappedByteBuffer chunk, int from) {
+        int last = -1;
+        for (int i = from; i < chunk.capacity(); i++) {
+            if (chunk.get(i) != 0) {
+                chunk.put(i, (byte) 0);
+                last = i;
+            }
+        }
+
+        if (last != -1)
+            chunk.force(from, last + 1 - from);
+    }
+
+    private int checksum(ByteBuffer payload) {
+        crc.reset();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    // Forces the remaining records and runs their callbacks before the file is closed
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            try {
+                while (scheduled)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        channel.close();
+    }
+}